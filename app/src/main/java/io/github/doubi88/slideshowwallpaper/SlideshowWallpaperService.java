@@ -10,9 +10,11 @@ import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 import android.service.wallpaper.WallpaperService;
+import android.util.DisplayMetrics;
 import android.view.GestureDetector;
 import android.view.MotionEvent;
 import android.view.SurfaceHolder;
+import android.view.WindowManager;
 import android.util.Log;
 
 import androidx.annotation.RequiresApi;
@@ -43,6 +45,8 @@ public class SlideshowWallpaperService extends WallpaperService {
         private final SharedPreferences sharedPrefs;
         private GestureDetector gestureDetector;
         private boolean surfaceReady = false;
+        private int fixedWidth = 0;
+        private int fixedHeight = 0;
 
         SlideshowWallpaperEngine() {
             // Use default SharedPreferences to match WallpaperPreferencesFragment
@@ -93,6 +97,39 @@ public class SlideshowWallpaperService extends WallpaperService {
                     });
         }
 
+        @Override
+        public void onCreate(SurfaceHolder surfaceHolder) {
+            super.onCreate(surfaceHolder);
+            applyRenderScale(surfaceHolder);
+        }
+
+        /**
+         * Renders into a smaller buffer, if a render scale is set. The compositor scales it up to the screen,
+         * which saves decode time, texture memory and fill rate on high density screens.
+         */
+        private void applyRenderScale(SurfaceHolder holder) {
+            float scale = manager.getRenderScale();
+            if (scale >= 1f) {
+                if (fixedWidth != 0) {
+                    fixedWidth = 0;
+                    fixedHeight = 0;
+                    holder.setSizeFromLayout();
+                }
+                return;
+            }
+            DisplayMetrics metrics = new DisplayMetrics();
+            WindowManager windowManager = (WindowManager) getSystemService(WINDOW_SERVICE);
+            windowManager.getDefaultDisplay().getRealMetrics(metrics);
+            int scaledWidth = Math.max(1, Math.round(metrics.widthPixels * scale));
+            int scaledHeight = Math.max(1, Math.round(metrics.heightPixels * scale));
+            if (scaledWidth != fixedWidth || scaledHeight != fixedHeight) {
+                Log.d(TAG, "Render scale " + scale + ": " + scaledWidth + "x" + scaledHeight);
+                fixedWidth = scaledWidth;
+                fixedHeight = scaledHeight;
+                holder.setFixedSize(scaledWidth, scaledHeight);
+            }
+        }
+
         @Override
         public void onTouchEvent(MotionEvent event) {
             super.onTouchEvent(event);
@@ -118,13 +155,17 @@ public class SlideshowWallpaperService extends WallpaperService {
             super.onSurfaceDestroyed(holder);
             Log.d(TAG, "onSurfaceDestroyed");
             surfaceReady = false;
-            if (currentMediaHandler != null)
-                currentMediaHandler.stop();
+            if (currentMediaHandler != null) {
+                // Keeps the player prepared for a while, so returning to the home screen does not restart the codec
+                currentMediaHandler.standby(manager.getWarmStandbySeconds() * 1000L);
+            }
         }
 
         @Override
         public void onSurfaceChanged(SurfaceHolder holder, int format, int width, int height) {
             super.onSurfaceChanged(holder, format, width, height);
+            // The display may have been rotated, which needs a new fixed size
+            applyRenderScale(holder);
             this.width = width;
             this.height = height;
             if (currentMediaHandler == null) {
@@ -133,7 +174,7 @@ public class SlideshowWallpaperService extends WallpaperService {
                 currentMediaHandler.addNextMediaListener(this::displayCurrentMedia);
                 currentMediaHandler.updateAfter(getApplicationContext(), 0);
             } else {
-                currentMediaHandler.updateSurface(holder);
+                // The surface itself was already bound in onSurfaceCreated
                 currentMediaHandler.setDimensions(width, height, getApplicationContext());
                 displayCurrentMedia(currentMediaHandler.getCurrentMedia());
             }
@@ -144,10 +185,12 @@ public class SlideshowWallpaperService extends WallpaperService {
             super.onVisibilityChanged(visible);
             Log.d(TAG, "onVisibilityChanged: " + visible);
             if (currentMediaHandler != null) {
-                if (visible && surfaceReady)
+                if (visible && surfaceReady) {
                     currentMediaHandler.resume(getApplicationContext());
-                else
+                } else {
+                    Log.d(TAG, "Swaps per minute: " + currentMediaHandler.getSwapsPerMinute());
                     currentMediaHandler.pause();
+                }
             }
         }
 
@@ -194,6 +237,10 @@ public class SlideshowWallpaperService extends WallpaperService {
                     Log.d(TAG, "Settings changed, will apply on next media");
                     // Settings will be read on next media change, no immediate action needed
                 }
+                // Resize the surface to the new render resolution
+                else if ("render_scale".equals(key)) {
+                    applyRenderScale(getSurfaceHolder());
+                }
             } catch (Exception e) {
                 Log.e(TAG, "Error handling preference change", e);
             }
@@ -25,7 +25,10 @@ import androidx.annotation.NonNull;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import io.github.doubi88.slideshowwallpaper.R;
 
@@ -42,6 +45,16 @@ public class SharedPreferencesManager {
     private static final String PREFERENCE_KEY_ANTI_ALIAS_WHILE_SCROLLING = "anti_alias_scrolling";
     private static final String PREFERENCE_KEY_SWIPE = "swipe";
     private static final String PREFERENCE_KEY_MUTE_VIDEOS = "mute_videos";
+    private static final String PREFERENCE_KEY_VIDEO_FPS_CAP = "video_fps_cap";
+    private static final String PREFERENCE_KEY_RENDER_SCALE = "render_scale";
+    private static final String PREFERENCE_KEY_WARM_STANDBY = "warm_standby_seconds";
+    private static final String PREFERENCE_KEY_CODEC_SUPPORTED = "codec_supported_uris";
+    private static final String PREFERENCE_KEY_CODEC_UNSUPPORTED = "codec_unsupported_uris";
+    private static final String PREFERENCE_KEY_TRANSCODE_VIDEOS = "transcode_videos";
+    private static final String PREFERENCE_KEY_PREFIX_PLAYBACK_URI = "playback_uri:";
+
+    // Guards the read-modify-write of the codec support sets. Static, all managers share the same preferences.
+    private static final Object CODEC_SUPPORT_LOCK = new Object();
 
     public enum Ordering {
         SELECTION(0, PREFERENCE_KEY_URI_LIST) {
@@ -200,12 +213,121 @@ public class SharedPreferencesManager {
         editor.apply();
     }
 
+    /**
+     * Keeps the first of every uri that is in the list more than once. Unlike removing and adding them again, this
+     * keeps what is stored for the items, like their display sized copies.
+     *
+     * @return {@code true} if duplicates were removed.
+     */
+    public boolean removeDuplicateUris() {
+        List<Uri> uris = getImageUris(Ordering.SELECTION);
+        List<Uri> unique = new ArrayList<>(new LinkedHashSet<>(uris));
+        if (unique.size() == uris.size()) {
+            return false;
+        }
+        for (Ordering ordering : Ordering.values()) {
+            saveUriList(ordering.sort(unique), ordering.getPreferenceKey());
+        }
+        return true;
+    }
+
     public void removeUri(Uri uri) {
         List<Uri> uris = getImageUris(Ordering.SELECTION);
         uris.remove(uri);
         for (Ordering ordering : Ordering.values()) {
             saveUriList(ordering.sort(uris), ordering.getPreferenceKey());
         }
+        removeCodecSupport(uri);
+        preferences.edit().remove(PREFERENCE_KEY_PREFIX_PLAYBACK_URI + uri).apply();
+    }
+
+    public boolean getTranscodeVideos() {
+        return preferences.getBoolean(PREFERENCE_KEY_TRANSCODE_VIDEOS, false);
+    }
+
+    public void setTranscodeVideos(boolean value) {
+        preferences.edit().putBoolean(PREFERENCE_KEY_TRANSCODE_VIDEOS, value).apply();
+    }
+
+    /**
+     * @return The uri to play for a playlist entry. This is a display sized copy, if the video was transcoded.
+     */
+    public Uri getPlaybackUri(Uri uri) {
+        String playbackUri = preferences.getString(PREFERENCE_KEY_PREFIX_PLAYBACK_URI + uri, null);
+        return playbackUri != null ? Uri.parse(playbackUri) : uri;
+    }
+
+    /**
+     * @return {@code true} if the video was already checked for transcoding, whether a copy was made or not.
+     */
+    public boolean hasPlaybackUri(Uri uri) {
+        return preferences.contains(PREFERENCE_KEY_PREFIX_PLAYBACK_URI + uri);
+    }
+
+    /**
+     * @param playbackUri The transcoded copy, or {@code uri} itself if it needs no copy.
+     */
+    public void setPlaybackUri(Uri uri, Uri playbackUri) {
+        if (!playbackUri.equals(uri)) {
+            // The copy has a different format, it needs a new probe
+            removeCodecSupport(uri);
+        }
+        preferences.edit().putString(PREFERENCE_KEY_PREFIX_PLAYBACK_URI + uri, playbackUri.toString()).apply();
+    }
+
+    /**
+     * @return Whether a decoder of this device can play the video, {@code null} if it was not probed yet.
+     */
+    public Boolean getCodecSupport(Uri uri) {
+        String value = uri.toString();
+        if (preferences.getStringSet(PREFERENCE_KEY_CODEC_SUPPORTED, Collections.emptySet()).contains(value)) {
+            return Boolean.TRUE;
+        }
+        if (preferences.getStringSet(PREFERENCE_KEY_CODEC_UNSUPPORTED, Collections.emptySet()).contains(value)) {
+            return Boolean.FALSE;
+        }
+        return null;
+    }
+
+    public void setCodecSupport(Uri uri, boolean supported) {
+        synchronized (CODEC_SUPPORT_LOCK) {
+            String value = uri.toString();
+            // The returned sets must not be modified
+            Set<String> supportedUris = new HashSet<>(
+                    preferences.getStringSet(PREFERENCE_KEY_CODEC_SUPPORTED, Collections.emptySet()));
+            Set<String> unsupportedUris = new HashSet<>(
+                    preferences.getStringSet(PREFERENCE_KEY_CODEC_UNSUPPORTED, Collections.emptySet()));
+            if (supported) {
+                supportedUris.add(value);
+                unsupportedUris.remove(value);
+            } else {
+                unsupportedUris.add(value);
+                supportedUris.remove(value);
+            }
+            SharedPreferences.Editor editor = preferences.edit();
+            editor.putStringSet(PREFERENCE_KEY_CODEC_SUPPORTED, supportedUris);
+            editor.putStringSet(PREFERENCE_KEY_CODEC_UNSUPPORTED, unsupportedUris);
+            editor.apply();
+        }
+    }
+
+    private void removeCodecSupport(Uri uri) {
+        synchronized (CODEC_SUPPORT_LOCK) {
+            if (getCodecSupport(uri) == null) {
+                return;
+            }
+            String value = uri.toString();
+            Set<String> supportedUris = new HashSet<>(
+                    preferences.getStringSet(PREFERENCE_KEY_CODEC_SUPPORTED, Collections.emptySet()));
+            Set<String> unsupportedUris = new HashSet<>(
+                    preferences.getStringSet(PREFERENCE_KEY_CODEC_UNSUPPORTED, Collections.emptySet()));
+            supportedUris.remove(value);
+            unsupportedUris.remove(value);
+            SharedPreferences.Editor editor = preferences.edit();
+            editor.putStringSet(PREFERENCE_KEY_CODEC_SUPPORTED, supportedUris);
+            editor.putStringSet(PREFERENCE_KEY_CODEC_UNSUPPORTED, unsupportedUris);
+            editor.apply();
+        }
     }
 
     public int getCurrentIndex() {
@@ -279,4 +401,39 @@ public class SharedPreferencesManager {
     public boolean getMuteVideos() {
         return preferences.getBoolean(PREFERENCE_KEY_MUTE_VIDEOS, true);
     }
+
+    /**
+     * @return The maximum number of video frames per second to draw, {@code 0} for no limit.
+     */
+    public int getVideoFpsCap() {
+        try {
+            return Integer.parseInt(preferences.getString(PREFERENCE_KEY_VIDEO_FPS_CAP, "0"));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return How long the player and GL context are kept after the wallpaper surface is gone, {@code 0} to
+     * release them immediately.
+     */
+    public int getWarmStandbySeconds() {
+        try {
+            return Math.max(0, Integer.parseInt(preferences.getString(PREFERENCE_KEY_WARM_STANDBY, "60")));
+        } catch (NumberFormatException e) {
+            return 60;
+        }
+    }
+
+    /**
+     * @return The factor (0 &lt; scale &lt;= 1) to scale the wallpaper surface with. The compositor scales it back up.
+     */
+    public float getRenderScale() {
+        try {
+            float result = Float.parseFloat(preferences.getString(PREFERENCE_KEY_RENDER_SCALE, "1"));
+            return result > 0 && result <= 1 ? result : 1f;
+        } catch (NumberFormatException e) {
+            return 1f;
+        }
+    }
 }
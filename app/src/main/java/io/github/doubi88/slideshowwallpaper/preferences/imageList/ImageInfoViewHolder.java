@@ -21,7 +21,6 @@ package io.github.doubi88.slideshowwallpaper.preferences.imageList;
 import android.graphics.Bitmap;
 import android.graphics.Matrix;
 import android.net.Uri;
-import android.os.AsyncTask;
 
 import androidx.core.content.ContextCompat;
 import androidx.recyclerview.widget.RecyclerView;
@@ -31,25 +30,23 @@ import android.widget.FrameLayout;
 import android.widget.ImageView;
 import android.widget.ProgressBar;
 
-import java.math.BigDecimal;
 import java.util.LinkedList;
-import java.util.List;
 
 import io.github.doubi88.slideshowwallpaper.R;
 import io.github.doubi88.slideshowwallpaper.listeners.OnCropListener;
 import io.github.doubi88.slideshowwallpaper.listeners.OnSelectListener;
 import io.github.doubi88.slideshowwallpaper.utilities.ImageInfo;
 import io.github.doubi88.slideshowwallpaper.utilities.ImageLoader;
-import io.github.doubi88.slideshowwallpaper.utilities.ProgressListener;
+import io.github.doubi88.slideshowwallpaper.utilities.MediaMetadata;
 
-public class ImageInfoViewHolder extends RecyclerView.ViewHolder
-        implements ProgressListener<Uri, BigDecimal, List<ImageInfo>> {
+public class ImageInfoViewHolder extends RecyclerView.ViewHolder {
 
     private final int height;
     private final int width;
     private ImageInfo imageInfo;
 
     private boolean imageIsSelected;
+    private boolean isVideo;
 
     private final FrameLayout frameLayout;
     private final ImageView imageView;
@@ -92,18 +89,30 @@ public class ImageInfoViewHolder extends RecyclerView.ViewHolder
         width = itemView.getWidth();
     }
 
-    public void setUri(Uri uri) {
+    /**
+     * Binds the item without calling into the content provider.
+     *
+     * @param metadata {@code null} while it is not loaded yet.
+     */
+    public void setUri(Uri uri, MediaMetadata metadata) {
         DeselectImage();
-        if (imageInfo == null || !uri.equals(imageInfo.getUri())) {
-            imageInfo = ImageLoader.loadFileNameAndSize(uri, imageView.getContext());
+        if (metadata != null) {
+            int size = (int) Math.min(metadata.getSize(), Integer.MAX_VALUE);
+            imageInfo = new ImageInfo(uri, metadata.getName(), size, null);
+        } else {
+            imageInfo = new ImageInfo(uri, null, 0, null);
         }
+        setMetadata(metadata);
+    }
 
-        // Update media type indicator
-        String mimeType = imageView.getContext().getContentResolver().getType(uri);
-        if (mimeType != null && mimeType.startsWith("video/")) {
-            mediaTypeIcon.setVisibility(View.VISIBLE);
-        } else {
-            mediaTypeIcon.setVisibility(View.GONE);
+    /**
+     * Updates the media type indicator, once the metadata arrived.
+     */
+    public void setMetadata(MediaMetadata metadata) {
+        isVideo = metadata != null && metadata.isVideo();
+        mediaTypeIcon.setVisibility(isVideo ? View.VISIBLE : View.GONE);
+        if (imageIsSelected) {
+            cropIcon.setVisibility(isVideo ? View.GONE : View.VISIBLE);
         }
     }
 
@@ -137,15 +146,7 @@ public class ImageInfoViewHolder extends RecyclerView.ViewHolder
         this.checkIcon.setVisibility(View.VISIBLE);
         this.selectionOverlay.setVisibility(View.VISIBLE);
 
-        // Check if it is a video to hide the edit button
-        boolean isVideo = false;
-        if (imageInfo != null && imageInfo.getUri() != null) {
-            String type = imageView.getContext().getContentResolver().getType(imageInfo.getUri());
-            if (type != null && type.startsWith("video/")) {
-                isVideo = true;
-            }
-        }
-
+        // Videos can not be cropped
         if (isVideo) {
             this.cropIcon.setVisibility(View.GONE);
         } else {
@@ -159,34 +160,36 @@ public class ImageInfoViewHolder extends RecyclerView.ViewHolder
         return imageInfo.getUri();
     }
 
-    @Override
-    public void onProgressChanged(AsyncTask<Uri, BigDecimal, List<ImageInfo>> task, BigDecimal current,
-            BigDecimal max) {
-        progressBar.setMax(max.intValue());
-        progressBar.setProgress(current.intValue());
+    public void onThumbnailLoaded(Bitmap thumbnail) {
+        showThumbnail(thumbnail);
     }
 
-    @Override
-    public void onTaskFinished(AsyncTask<Uri, BigDecimal, List<ImageInfo>> task, List<ImageInfo> imageInfos) {
-        if (imageInfos.size() == 1) {
-            imageInfo = imageInfos.get(0);
-            if (imageInfo.getImage() != null) {
-                Matrix matrix = ImageLoader.calculateMatrixScaleToFit(imageInfo.getImage(), width, height, false);
-                imageView.setImageBitmap(Bitmap.createBitmap(imageInfo.getImage(), 0, 0,
-                        imageInfo.getImage().getWidth(), imageInfo.getImage().getHeight(), matrix, false));
-            }
-            progressBar.setVisibility(View.GONE);
-
+    /**
+     * Shows a thumbnail from the ThumbnailCache. A copy is scaled for the view, the cached bitmap stays unchanged,
+     * it must not be recycled.
+     */
+    public void showThumbnail(Bitmap thumbnail) {
+        if (thumbnail != null) {
+            Matrix matrix = ImageLoader.calculateMatrixScaleToFit(thumbnail, width, height, false);
+            imageView.setImageBitmap(Bitmap.createBitmap(thumbnail, 0, 0,
+                    thumbnail.getWidth(), thumbnail.getHeight(), matrix, false));
         }
+        progressBar.setVisibility(View.GONE);
     }
 
-    @Override
-    public void onTaskCancelled(AsyncTask<Uri, BigDecimal, List<ImageInfo>> task, List<ImageInfo> imageInfos) {
-        if (imageInfos != null) {
-            for (ImageInfo info : imageInfos) {
-                info.getImage().recycle();
-            }
-        }
+    /**
+     * Clears the thumbnail of the previous item, while the one of the new item loads.
+     */
+    public void showLoading() {
+        imageView.setImageDrawable(null);
+        progressBar.setVisibility(View.VISIBLE);
+    }
+
+    /**
+     * @return {@code true} until a thumbnail was shown, or its load failed.
+     */
+    public boolean isLoading() {
+        return progressBar.getVisibility() == View.VISIBLE;
     }
 
     public void setOnSelectListener(OnSelectListener listener) {
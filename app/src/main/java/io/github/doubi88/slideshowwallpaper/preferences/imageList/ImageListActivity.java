@@ -78,6 +78,7 @@ import io.github.doubi88.slideshowwallpaper.listeners.OnCropListener;
 import io.github.doubi88.slideshowwallpaper.listeners.OnSelectListener;
 import io.github.doubi88.slideshowwallpaper.preferences.SharedPreferencesManager;
 import io.github.doubi88.slideshowwallpaper.utilities.ImageInfo;
+import io.github.doubi88.slideshowwallpaper.utilities.PlaylistRemover;
 
 public class ImageListActivity extends AppCompatActivity implements OnCropListener {
 
@@ -221,7 +222,7 @@ public class ImageListActivity extends AppCompatActivity implements OnCropListen
                 public void onClick(DialogInterface dialog, int which) {
                     for (ImageInfo imageInfo : selectedImages) {
                         Uri uri = imageInfo.getUri();
-                        manager.removeUri(uri);
+                        PlaylistRemover.remove(ImageListActivity.this, manager, uri);
 
                         if ("content".equals(uri.getScheme())) {
                             try {
@@ -512,7 +513,7 @@ public class ImageListActivity extends AppCompatActivity implements OnCropListen
                     Uri newUri = saveImageToMediaStore(resultUri);
                     if (newUri != null) {
                         // Replace the original URI with the new cropped URI
-                        manager.removeUri(originalUri);
+                        PlaylistRemover.remove(this, manager, originalUri);
                         manager.addUri(newUri);
 
                         // Delete the original image
@@ -717,7 +718,7 @@ public class ImageListActivity extends AppCompatActivity implements OnCropListen
             if (exists) {
                 validUris.add(uri);
             } else {
-                manager.removeUri(uri);
+                PlaylistRemover.remove(this, manager, uri);
             }
         }
         return validUris;
@@ -18,37 +18,55 @@
  */
 package io.github.doubi88.slideshowwallpaper.preferences.imageList;
 
+import android.content.Context;
+import android.graphics.Bitmap;
 import android.net.Uri;
-import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 
-import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import io.github.doubi88.slideshowwallpaper.R;
 import io.github.doubi88.slideshowwallpaper.listeners.OnCropListener;
 import io.github.doubi88.slideshowwallpaper.listeners.OnSelectListener;
-import io.github.doubi88.slideshowwallpaper.utilities.AsyncTaskLoadImages;
 import io.github.doubi88.slideshowwallpaper.utilities.ImageInfo;
-import io.github.doubi88.slideshowwallpaper.utilities.ProgressListener;
+import io.github.doubi88.slideshowwallpaper.utilities.MediaMetadata;
+import io.github.doubi88.slideshowwallpaper.utilities.ThumbnailCache;
+import io.github.doubi88.slideshowwallpaper.utilities.ThumbnailLoader;
 import io.github.doubi88.slideshowwallpaper.preferences.imageList.ImageListActivity.MediaFilter;
 
 public class ImageListAdapter extends RecyclerView.Adapter<ImageInfoViewHolder> {
+    private static final Object PAYLOAD_METADATA = new Object();
 
     private List<Uri> uris;
     private List<Uri> filteredUris;
     private MediaFilter currentFilter = MediaFilter.ALL;
     private List<OnSelectListener> listeners;
     private OnCropListener cropListener;
-    private HashMap<Uri, AsyncTaskLoadImages> loading;
+    private HashMap<Uri, ThumbnailLoader.Request> loading;
+    private ThumbnailLoader thumbnailLoader;
+    private HashMap<Uri, MediaMetadata> metadata;
+    private ExecutorService metadataExecutor;
+    private Context context;
+    private RecyclerView recyclerView;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private long attachedNanos;
+    private boolean firstThumbnailShown = false;
     private HashSet<ImageInfo> selectedImages;
 
     public ImageListAdapter(List<Uri> uris) {
@@ -57,6 +75,7 @@ public class ImageListAdapter extends RecyclerView.Adapter<ImageInfoViewHolder>
         this.filteredUris = new ArrayList<>(uris);
         listeners = new LinkedList<>();
         loading = new HashMap<>();
+        metadata = new HashMap<>();
     }
 
     @NonNull
@@ -100,39 +119,134 @@ public class ImageListAdapter extends RecyclerView.Adapter<ImageInfoViewHolder>
     }
 
     @Override
-    public void onBindViewHolder(@NonNull ImageInfoViewHolder holder, int position) {
-        final Uri uri = filteredUris.get(position);
-        AsyncTaskLoadImages asyncTask = loading.get(uri);
-        if (asyncTask == null) {
-            asyncTask = new AsyncTaskLoadImages(holder.itemView.getContext(), holder.itemView.getWidth(),
-                    holder.itemView.getResources().getDimensionPixelSize(R.dimen.image_preview_height));
-            loading.put(uri, asyncTask);
+    public void onAttachedToRecyclerView(@NonNull RecyclerView recyclerView) {
+        super.onAttachedToRecyclerView(recyclerView);
+        context = recyclerView.getContext().getApplicationContext();
+        this.recyclerView = recyclerView;
+        thumbnailLoader = new ThumbnailLoader(context);
+        metadataExecutor = Executors.newSingleThreadExecutor();
+        attachedNanos = System.nanoTime();
+        firstThumbnailShown = false;
+        loadMetadata(uris);
+    }
 
-            asyncTask.addProgressListener(new ProgressListener<Uri, BigDecimal, List<ImageInfo>>() {
-                @Override
-                public void onProgressChanged(AsyncTask<Uri, BigDecimal, List<ImageInfo>> task, BigDecimal current,
-                        BigDecimal max) {
+    @Override
+    public void onDetachedFromRecyclerView(@NonNull RecyclerView recyclerView) {
+        super.onDetachedFromRecyclerView(recyclerView);
+        this.recyclerView = null;
+        loading.clear();
+        thumbnailLoader.shutdown();
+        thumbnailLoader = null;
+        metadataExecutor.shutdownNow();
+        metadataExecutor = null;
+    }
 
+    /**
+     * Queries the metadata of the uris in the background. Bound items are updated when it arrives.
+     */
+    private void loadMetadata(List<Uri> toLoad) {
+        if (metadataExecutor == null || toLoad.isEmpty()) {
+            return;
+        }
+        final List<Uri> copy = new ArrayList<>(toLoad);
+        final ExecutorService executor = metadataExecutor;
+        executor.execute(() -> {
+            Map<Uri, MediaMetadata> loaded = MediaMetadata.loadAll(context, copy);
+            mainHandler.post(() -> {
+                if (executor != metadataExecutor) {
+                    return;
                 }
+                metadata.putAll(loaded);
+                onMetadataLoaded();
+            });
+        });
+    }
 
-                @Override
-                public void onTaskFinished(AsyncTask<Uri, BigDecimal, List<ImageInfo>> task,
-                        List<ImageInfo> imageInfos) {
-                    loading.remove(uri);
-                }
+    private void onMetadataLoaded() {
+        if (currentFilter != MediaFilter.ALL) {
+            // The filter may have guessed wrong without the MIME type
+            applyFilter();
+        } else {
+            notifyItemRangeChanged(0, filteredUris.size(), PAYLOAD_METADATA);
+        }
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ImageInfoViewHolder holder, int position) {
+        final Uri uri = filteredUris.get(position);
+        MediaMetadata itemMetadata = metadata.get(uri);
+        holder.setUri(uri, itemMetadata);
+        restoreSelection(holder, uri);
 
-                @Override
-                public void onTaskCancelled(AsyncTask<Uri, BigDecimal, List<ImageInfo>> task,
-                        List<ImageInfo> imageInfos) {
+        // Bound, but not attached yet. Prefetched items wait until they are attached.
+        loadThumbnail(holder, uri, itemMetadata, ThumbnailLoader.PRIORITY_PREFETCH);
+    }
+
+    /**
+     * Shows the thumbnail from the memory cache, or shows the spinner and loads it.
+     */
+    private void loadThumbnail(ImageInfoViewHolder holder, Uri uri, MediaMetadata itemMetadata, int priority) {
+        int previewWidth = getPreviewWidth(holder);
+        int previewHeight = holder.itemView.getResources().getDimensionPixelSize(R.dimen.image_preview_height);
+        String version = itemMetadata != null ? itemMetadata.getVersion() : null;
+        Bitmap cached = ThumbnailCache.getInstance(holder.itemView.getContext())
+                .getFromMemory(uri, version, previewWidth, previewHeight);
+        if (cached != null) {
+            // Served synchronously, nothing is decoded when scrolling back
+            holder.showThumbnail(cached);
+            onThumbnailShown();
+            return;
+        }
+        holder.showLoading();
+        // A request of an earlier bind delivers to the holder of that bind
+        ThumbnailLoader.Request previous = loading.remove(uri);
+        if (previous != null) {
+            thumbnailLoader.cancel(previous);
+        }
+        String mimeType = itemMetadata != null ? itemMetadata.getMimeType() : null;
+        ThumbnailLoader.Request request = thumbnailLoader.load(uri, version, mimeType, previewWidth, previewHeight,
+                priority, thumbnail -> {
                     loading.remove(uri);
-                }
-            });
-            asyncTask.execute(uri);
+                    if (uri.equals(holder.getUri())) {
+                        holder.onThumbnailLoaded(thumbnail);
+                        onThumbnailShown();
+                    }
+                });
+        loading.put(uri, request);
+    }
+
+    /**
+     * The width of a grid cell, from the width of the list. A holder that was just created is not laid out yet,
+     * its own width is 0 and would give the thumbnails of the first screen another cache key.
+     */
+    private int getPreviewWidth(ImageInfoViewHolder holder) {
+        int listWidth = recyclerView.getWidth() - recyclerView.getPaddingLeft() - recyclerView.getPaddingRight();
+        if (listWidth <= 0) {
+            listWidth = recyclerView.getResources().getDisplayMetrics().widthPixels;
+        }
+        RecyclerView.LayoutManager layoutManager = recyclerView.getLayoutManager();
+        int spanCount = layoutManager instanceof GridLayoutManager
+                ? ((GridLayoutManager) layoutManager).getSpanCount() : 1;
+        int width = listWidth / spanCount;
+        ViewGroup.LayoutParams params = holder.itemView.getLayoutParams();
+        if (params instanceof ViewGroup.MarginLayoutParams) {
+            ViewGroup.MarginLayoutParams margins = (ViewGroup.MarginLayoutParams) params;
+            width -= margins.leftMargin + margins.rightMargin;
         }
-        asyncTask.addProgressListener(holder);
-        holder.setUri(uri);
+        return Math.max(1, width);
+    }
 
-        // Restore selection state
+    @Override
+    public void onBindViewHolder(@NonNull ImageInfoViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.contains(PAYLOAD_METADATA) && payloads.size() == 1) {
+            // Only the metadata changed, the thumbnail stays
+            holder.setMetadata(metadata.get(filteredUris.get(position)));
+        } else {
+            onBindViewHolder(holder, position);
+        }
+    }
+
+    private void restoreSelection(ImageInfoViewHolder holder, Uri uri) {
         // We create a dummy ImageInfo because equals() only checks URI
         ImageInfo tempInfo = new ImageInfo(uri, null, 0, null);
         if (selectedImages.contains(tempInfo)) {
@@ -142,13 +256,33 @@ public class ImageListAdapter extends RecyclerView.Adapter<ImageInfoViewHolder>
         }
     }
 
+    private void onThumbnailShown() {
+        if (!firstThumbnailShown) {
+            firstThumbnailShown = true;
+            Log.d(ImageListAdapter.class.getSimpleName(), "Time to first visible thumbnail: "
+                    + (System.nanoTime() - attachedNanos) / 1000000 + "ms for " + getItemCount() + " items");
+        }
+    }
+
+    @Override
+    public void onViewAttachedToWindow(@NonNull ImageInfoViewHolder holder) {
+        super.onViewAttachedToWindow(holder);
+        Uri uri = holder.getUri();
+        ThumbnailLoader.Request request = loading.get(uri);
+        if (request != null) {
+            thumbnailLoader.setPriority(request, ThumbnailLoader.PRIORITY_VISIBLE);
+        } else if (holder.isLoading()) {
+            // Re-attached from the view cache without a bind, the detach cancelled its load
+            loadThumbnail(holder, uri, metadata.get(uri), ThumbnailLoader.PRIORITY_VISIBLE);
+        }
+    }
+
     @Override
     public void onViewDetachedFromWindow(@NonNull ImageInfoViewHolder holder) {
         super.onViewDetachedFromWindow(holder);
-        AsyncTaskLoadImages task = loading.get(holder.getUri());
-        if (task != null) {
-            task.cancel(false);
-            loading.remove(holder.getUri());
+        ThumbnailLoader.Request request = loading.remove(holder.getUri());
+        if (request != null) {
+            thumbnailLoader.cancel(request);
         }
     }
 
@@ -161,6 +295,7 @@ public class ImageListAdapter extends RecyclerView.Adapter<ImageInfoViewHolder>
         for (ImageInfo imageInfo : imageInfos) {
             int index = uris.indexOf(imageInfo.getUri());
             uris.remove(index);
+            metadata.remove(imageInfo.getUri());
             notifyItemRemoved(index);
         }
         selectedImages.clear();
@@ -208,6 +343,10 @@ public class ImageListAdapter extends RecyclerView.Adapter<ImageInfoViewHolder>
     }
 
     private boolean isVideoUri(Uri uri) {
+        MediaMetadata itemMetadata = metadata.get(uri);
+        if (itemMetadata != null && itemMetadata.getMimeType() != null) {
+            return itemMetadata.isVideo();
+        }
         try {
             // Simple heuristic: check if path contains video indicators
             String uriString = uri.toString();
@@ -238,6 +377,7 @@ public class ImageListAdapter extends RecyclerView.Adapter<ImageInfoViewHolder>
         int oldSize = this.filteredUris.size();
         this.uris.addAll(uris);
         applyFilter();
+        loadMetadata(uris);
 
         if (currentFilter == MediaFilter.ALL) {
             notifyItemRangeInserted(oldSize, uris.size());
@@ -260,6 +400,11 @@ public class ImageListAdapter extends RecyclerView.Adapter<ImageInfoViewHolder>
             }
 
             uris.set(uriIndex, newUri);
+            metadata.remove(oldUri);
+            if (context != null) {
+                ThumbnailCache.getInstance(context).remove(oldUri);
+            }
+            loadMetadata(Collections.singletonList(newUri));
 
             if (filteredIndex != -1) {
                 filteredUris.set(filteredIndex, newUri);
@@ -16,7 +16,6 @@ import androidx.activity.result.contract.ActivityResultContracts
 import androidx.compose.foundation.layout.*
 import androidx.compose.foundation.lazy.staggeredgrid.LazyVerticalStaggeredGrid
 import androidx.compose.foundation.lazy.staggeredgrid.StaggeredGridCells
-import androidx.compose.foundation.lazy.staggeredgrid.items
 import androidx.compose.material.icons.Icons
 import androidx.compose.material.icons.filled.Add
 import androidx.compose.material.icons.filled.Delete
@@ -536,16 +535,9 @@ fun GalleryScreen(
                 }
             }
     ) { paddingValues ->
-        val filteredItems =
-                remember(uiState.mediaItems, uiState.currentFilter) {
-                    when (uiState.currentFilter) {
-                        MediaFilter.IMAGES_ONLY -> uiState.mediaItems.filter { !it.isVideo }
-                        MediaFilter.VIDEOS_ONLY -> uiState.mediaItems.filter { it.isVideo }
-                        MediaFilter.ALL -> uiState.mediaItems
-                    }
-                }
+        val galleryItems = uiState.items
 
-        if (filteredItems.isEmpty()) { // Empty state
+        if (galleryItems.size == 0) { // Empty state
             Box(
                     modifier = Modifier.fillMaxSize().padding(paddingValues),
                     contentAlignment = Alignment.Center
@@ -598,7 +590,9 @@ fun GalleryScreen(
                     verticalItemSpacing = 8.dp,
                     modifier = Modifier.fillMaxSize()
             ) {
-                items(items = filteredItems, key = { it.uri }) { mediaItem ->
+                // Only the pages the grid reaches are created
+                items(count = galleryItems.size, key = { galleryItems.key(it) }) { position ->
+                    val mediaItem = galleryItems[position]
                     MediaCard(
                             uri = mediaItem.uri,
                             isSelected = mediaItem.uri in uiState.selectedItems,
@@ -3,20 +3,31 @@ package io.github.doubi88.slideshowwallpaper.ui.screens
 import android.content.Context
 import android.database.ContentObserver
 import android.net.Uri
+import android.os.Build
 import android.os.Handler
 import android.os.Looper
 import android.provider.MediaStore
+import android.text.TextUtils
 import android.util.Log
+import androidx.annotation.OptIn
 import androidx.compose.runtime.getValue
 import androidx.compose.runtime.setValue
 import androidx.lifecycle.ViewModel
 import androidx.lifecycle.ViewModelProvider
 import androidx.lifecycle.viewModelScope
+import androidx.media3.common.util.UnstableApi
 import io.github.doubi88.slideshowwallpaper.preferences.SharedPreferencesManager
+import io.github.doubi88.slideshowwallpaper.ui.utils.GalleryItems
+import io.github.doubi88.slideshowwallpaper.ui.utils.MediaIndex
 import io.github.doubi88.slideshowwallpaper.ui.utils.MediaStoreHelper
+import io.github.doubi88.slideshowwallpaper.ui.utils.VideoTranscoder
+import io.github.doubi88.slideshowwallpaper.utilities.MediaMetadata
+import io.github.doubi88.slideshowwallpaper.utilities.PlaylistRemover
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
 import kotlinx.coroutines.async
 import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.delay
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.asStateFlow
@@ -45,7 +56,8 @@ enum class MediaFilter {
 }
 
 data class GalleryUiState(
-        val mediaItems: List<MediaItem> = emptyList(),
+        // Paged, the whole playlist is only held as a MediaIndex
+        val items: GalleryItems = GalleryItems.EMPTY,
         val selectedItems: Set<Uri> = emptySet(),
         val currentFilter: MediaFilter = MediaFilter.ALL,
         val isLoading: Boolean = false,
@@ -66,16 +78,30 @@ class GalleryViewModel(
     private val _uiState = MutableStateFlow(GalleryUiState())
     val uiState: StateFlow<GalleryUiState> = _uiState.asStateFlow()
 
+    // All saved items, the state only shows the filtered and sorted window of it
+    private var index = MediaIndex.EMPTY
+    private var orderJob: Job? = null
+
     // Track processed shared URIs to prevent re-adding on navigation
     private var processedSharedUris: Set<Uri> = emptySet()
 
-    // ContentObserver for external changes to LumaLoop album
+    private var transcodeJob: Job? = null
+
+    // Changes seen by the observer until the next sync, null stands for "something changed"
+    private val pendingChanges = mutableSetOf<Uri?>()
+    private var syncJob: Job? = null
+
+    // MediaStore generation of every external volume at the last full check, API 30+. SD cards have their own.
+    @Volatile private var checkedGenerations = emptyMap<String, Long>()
+
+    // ContentObserver for external changes to LumaLoop album. Fires for every change on the device,
+    // so changes are collected and synced together.
     private val albumContentObserver =
             object : ContentObserver(Handler(Looper.getMainLooper())) {
                 override fun onChange(selfChange: Boolean, uri: Uri?) {
                     super.onChange(selfChange, uri)
-                    Log.d("GalleryViewModel", "MediaStore changed, refreshing gallery")
-                    syncWithAlbum()
+                    pendingChanges.add(uri?.takeIf { getMediaId(it) != null })
+                    scheduleSync()
                 }
             }
 
@@ -97,95 +123,63 @@ class GalleryViewModel(
         migrateToPublicAlbum()
         // Clean up duplicates and invalid URIs
         cleanupDuplicates()
+        // Catch up on videos added while transcoding was off or interrupted
+        transcodePendingVideos()
     }
 
     override fun onCleared() {
         super.onCleared()
         context.contentResolver.unregisterContentObserver(albumContentObserver)
+        syncJob?.cancel()
     }
 
     fun loadMediaItems() {
         viewModelScope.launch {
-            val uris =
-                    preferencesManager.getImageUris(
-                            io.github.doubi88.slideshowwallpaper.preferences
-                                    .SharedPreferencesManager.Ordering.SELECTION
-                    )
+            val newIndex =
+                    withContext(Dispatchers.IO) {
+                        val uris =
+                                preferencesManager.getImageUris(
+                                        SharedPreferencesManager.Ordering.SELECTION
+                                )
 
-            // Validate URIs - remove if file doesn't exist
-            val validUris =
-                    uris.filter { uri ->
-                        try {
-                            context.contentResolver.openInputStream(uri)?.use { true } ?: false
-                        } catch (e: Exception) {
+                        // One query per collection and batch, instead of two calls per uri
+                        hasGenerationChanged()
+                        val missing = mutableSetOf<Uri>()
+                        val loaded = MediaIndex.load(context, uris, missing)
+                        missing.forEach { uri ->
                             Log.w("GalleryViewModel", "Invalid URI, removing: $uri")
-                            preferencesManager.removeUri(uri)
-                            false
-                        }
-                    }
-
-            val mediaItems =
-                    validUris.map { uri ->
-                        var name = "Unknown"
-                        var lastModified = 0L
-                        try {
-                            context.contentResolver.query(
-                                            uri,
-                                            arrayOf(
-                                                    MediaStore.MediaColumns.DISPLAY_NAME,
-                                                    MediaStore.MediaColumns.DATE_MODIFIED
-                                            ),
-                                            null,
-                                            null,
-                                            null
-                                    )
-                                    ?.use { cursor ->
-                                        if (cursor.moveToFirst()) {
-                                            val nameIndex =
-                                                    cursor.getColumnIndex(
-                                                            MediaStore.MediaColumns.DISPLAY_NAME
-                                                    )
-                                            val dateIndex =
-                                                    cursor.getColumnIndex(
-                                                            MediaStore.MediaColumns.DATE_MODIFIED
-                                                    )
-                                            if (nameIndex != -1)
-                                                    name = cursor.getString(nameIndex) ?: "Unknown"
-                                            if (dateIndex != -1)
-                                                    lastModified = cursor.getLong(dateIndex)
-                                        }
-                                    }
-                        } catch (e: Exception) {
-                            Log.e("GalleryViewModel", "Error getting file info for $uri", e)
+                            removeFromPlaylist(uri)
                         }
-
-                        MediaItem(
-                                uri = uri,
-                                isVideo = isVideoUri(uri),
-                                name = name,
-                                lastModified = lastModified
-                        )
+                        loaded
                     }
-
-            val sortedItems = sortMediaItems(mediaItems, _uiState.value.sortOption)
-
-            _uiState.value =
-                    _uiState.value.copy(mediaItems = sortedItems, selectedItems = emptySet())
+            showIndex(newIndex, emptySet())
         }
     }
 
     fun setSortOption(option: SortOption) {
-        val sortedItems = sortMediaItems(_uiState.value.mediaItems, option)
-        _uiState.value = _uiState.value.copy(sortOption = option, mediaItems = sortedItems)
+        _uiState.value = _uiState.value.copy(sortOption = option)
+        showIndex(index, _uiState.value.selectedItems)
     }
 
-    private fun sortMediaItems(items: List<MediaItem>, option: SortOption): List<MediaItem> {
-        return when (option) {
-            SortOption.DATE_DESC -> items.sortedByDescending { it.lastModified }
-            SortOption.DATE_ASC -> items.sortedBy { it.lastModified }
-            SortOption.NAME_ASC -> items.sortedBy { it.name }
-            SortOption.NAME_DESC -> items.sortedByDescending { it.name }
-        }
+    /**
+     * Sorts and filters the positions of the index in the background, and shows the result.
+     */
+    private fun showIndex(newIndex: MediaIndex, selectedItems: Set<Uri>) {
+        index = newIndex
+        orderJob?.cancel()
+        orderJob =
+                viewModelScope.launch {
+                    val state = _uiState.value
+                    val order =
+                            withContext(Dispatchers.Default) {
+                                newIndex.order(state.sortOption, state.currentFilter)
+                            }
+                    _uiState.value =
+                            _uiState.value.copy(
+                                    items = GalleryItems(newIndex, order),
+                                    selectedItems = selectedItems
+                            )
+                }
     }
 
     fun toggleSelection(uri: Uri) {
@@ -203,7 +197,7 @@ class GalleryViewModel(
 
     fun removeItemByUri(uri: Uri) {
         viewModelScope.launch {
-            preferencesManager.removeUri(uri)
+            withContext(Dispatchers.IO) { removeFromPlaylist(uri) }
             loadMediaItems()
         }
     }
@@ -212,7 +206,7 @@ class GalleryViewModel(
         viewModelScope.launch {
             _uiState.value =
                     _uiState.value.copy(
-                            selectedItems = _uiState.value.mediaItems.map { it.uri }.toSet()
+                            selectedItems = index.uris().toSet()
                     )
         }
     }
@@ -222,11 +216,8 @@ class GalleryViewModel(
     }
 
     fun setFilter(filter: MediaFilter) {
-        _uiState.value =
-                _uiState.value.copy(
-                        currentFilter = filter,
-                        selectedItems = emptySet() // Clear selection when filter changes
-                )
+        _uiState.value = _uiState.value.copy(currentFilter = filter)
+        showIndex(index, emptySet()) // Clear selection when filter changes
     }
 
     fun addMediaItems(uris: List<Uri>) {
@@ -380,6 +371,7 @@ class GalleryViewModel(
                 addedUris.forEach { preferencesManager.addUri(it) }
 
                 loadMediaItems()
+                transcodePendingVideos()
             } finally {
                 _uiState.value =
                         _uiState.value.copy(
@@ -405,6 +397,33 @@ class GalleryViewModel(
         }
     }
 
+    /**
+     * Makes display sized copies of oversized videos, one at a time. Videos are checked only once, so this
+     * is cheap after the first run. An interrupted run continues the next time the gallery is opened.
+     */
+    @OptIn(UnstableApi::class)
+    private fun transcodePendingVideos() {
+        if (!preferencesManager.transcodeVideos || transcodeJob?.isActive == true) {
+            return
+        }
+        transcodeJob = viewModelScope.launch {
+            val pending = withContext(Dispatchers.IO) {
+                preferencesManager.getImageUris(SharedPreferencesManager.Ordering.SELECTION)
+                        .filter { !preferencesManager.hasPlaybackUri(it) && isVideoUri(it) }
+            }
+            for (uri in pending) {
+                // The name of the source, the last segment of a MediaStore uri is only its id
+                val name = withContext(Dispatchers.IO) {
+                    MediaMetadata.loadAll(context, listOf(uri))[uri]?.name?.substringBeforeLast('.')
+                }
+                val playbackUri = VideoTranscoder.transcodeIfOversized(context, uri, name)
+                if (playbackUri != null && preferencesManager.hasImageUri(uri)) {
+                    preferencesManager.setPlaybackUri(uri, playbackUri)
+                }
+            }
+        }
+    }
+
     private fun migrateToPublicAlbum() {
         viewModelScope.launch {
             try {
@@ -440,7 +459,7 @@ class GalleryViewModel(
                                     io.github.doubi88.slideshowwallpaper.preferences
                                             .SharedPreferencesManager.Ordering.SELECTION
                             )
-                    oldUris.forEach { preferencesManager.removeUri(it) }
+                    oldUris.forEach { removeFromPlaylist(it) }
 
                     // Add new album URIs
                     migratedUris.forEach { preferencesManager.addUri(it) }
@@ -453,68 +472,108 @@ class GalleryViewModel(
         }
     }
 
-    private fun syncWithAlbum() {
-        viewModelScope.launch {
-            try {
-                // Get all files currently in LumaLoop album
-                val albumUris = MediaStoreHelper.getAlbumContent(context)
-                val savedUris =
-                        preferencesManager.getImageUris(
-                                io.github.doubi88.slideshowwallpaper.preferences
-                                        .SharedPreferencesManager.Ordering.SELECTION
-                        )
-
-                // Remove URIs that are no longer in album
-                savedUris.forEach { uri ->
-                    if (uri !in albumUris && uri.toString().contains("LumaLoop")) {
-                        Log.d("GalleryViewModel", "File deleted externally, removing: $uri")
-                        preferencesManager.removeUri(uri)
+    /**
+     * Syncs once the changes stop for a moment. Changes arriving during a sync are synced right after it.
+     */
+    private fun scheduleSync() {
+        if (syncJob?.isActive == true) {
+            return
+        }
+        syncJob =
+                viewModelScope.launch {
+                    delay(SYNC_DELAY_MS)
+                    while (pendingChanges.isNotEmpty()) {
+                        val changes = pendingChanges.toSet()
+                        pendingChanges.clear()
+                        syncWithAlbum(changes)
                     }
                 }
+    }
 
-                // Optionally: auto-add new files found in album
-                // (Commented out - user can manually add if needed)
-                // albumUris.forEach { uri ->
-                //     if (uri !in savedUris) {
-                //         preferencesManager.addUri(uri)
-                //     }
-                // }
+    /**
+     * Checks the saved items among the changes and applies what changed to the state, without reloading the
+     * gallery. Changes of other files on the device are ignored.
+     */
+    private suspend fun syncWithAlbum(changes: Set<Uri?>) {
+        try {
+            val (metadata, missing) =
+                    withContext(Dispatchers.IO) {
+                        val savedUris =
+                                preferencesManager.getImageUris(
+                                        SharedPreferencesManager.Ordering.SELECTION
+                                )
+                        val toCheck =
+                                if (null in changes) {
+                                    // The observer did not say which item changed
+                                    if (!hasGenerationChanged()) {
+                                        return@withContext null
+                                    }
+                                    savedUris
+                                } else {
+                                    val changedIds = changes.mapNotNull { it?.let(::getMediaId) }.toSet()
+                                    savedUris.filter { getMediaId(it) in changedIds }
+                                }
+                        if (toCheck.isEmpty()) {
+                            return@withContext null
+                        }
 
-                loadMediaItems()
-            } catch (e: Exception) {
-                Log.e("GalleryViewModel", "Sync error", e)
+                        val missing = mutableSetOf<Uri>()
+                        val metadata = MediaMetadata.loadAll(context, toCheck, missing)
+                        missing.forEach { uri ->
+                            Log.d("GalleryViewModel", "File deleted externally, removing: $uri")
+                            removeFromPlaylist(uri)
+                        }
+                        Pair(metadata, missing)
+                    }
+                            ?: return
+
+            val newIndex = index.without(missing).withMetadata(metadata)
+            if (newIndex !== index) {
+                Log.d("GalleryViewModel", "Synced ${metadata.size} changed, ${missing.size} removed items")
+                showIndex(newIndex, _uiState.value.selectedItems - missing)
             }
+        } catch (e: Exception) {
+            Log.e("GalleryViewModel", "Sync error", e)
         }
     }
 
-    private fun cleanupDuplicates() {
-        viewModelScope.launch {
+    /**
+     * Always `true` before API 30, there is no generation to compare.
+     */
+    private fun hasGenerationChanged(): Boolean {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) {
+            return true
+        }
+        val generations = MediaStore.getExternalVolumeNames(context).associateWith { volume ->
             try {
-                val savedUris =
-                        preferencesManager
-                                .getImageUris(
-                                        io.github.doubi88.slideshowwallpaper.preferences
-                                                .SharedPreferencesManager.Ordering.SELECTION
-                                )
-                                .toSet() // Convert to Set to find duplicates
+                MediaStore.getGeneration(context, volume)
+            } catch (e: IllegalArgumentException) {
+                // Unmounted since it was listed
+                -1L
+            }
+        }
+        val changed = generations != checkedGenerations
+        checkedGenerations = generations
+        return changed
+    }
 
-                val originalSize =
-                        preferencesManager.getImageUris(
-                                        io.github.doubi88.slideshowwallpaper.preferences
-                                                .SharedPreferencesManager.Ordering.SELECTION
-                                )
-                                .size
+    /**
+     * The id of a MediaStore item. Images and videos share the id space, so it also matches an item notified
+     * through another collection or volume.
+     */
+    private fun getMediaId(uri: Uri): Long? {
+        if (uri.authority != MediaStore.AUTHORITY || uri.query != null) {
+            return null
+        }
+        return uri.lastPathSegment?.takeIf { TextUtils.isDigitsOnly(it) }?.toLongOrNull()
+    }
 
-                if (savedUris.size < originalSize) {
-                    Log.d("GalleryViewModel", "Found duplicates, cleaning up...")
-                    // Remove all and re-add unique ones
-                    val allUris =
-                            preferencesManager.getImageUris(
-                                    io.github.doubi88.slideshowwallpaper.preferences
-                                            .SharedPreferencesManager.Ordering.SELECTION
-                            )
-                    allUris.forEach { preferencesManager.removeUri(it) }
-                    savedUris.forEach { preferencesManager.addUri(it) }
+    private fun cleanupDuplicates() {
+        viewModelScope.launch {
+            try {
+                val removed = withContext(Dispatchers.IO) { preferencesManager.removeDuplicateUris() }
+                if (removed) {
+                    Log.d("GalleryViewModel", "Removed duplicates")
                     loadMediaItems()
                 }
             } catch (e: Exception) {
@@ -534,8 +593,8 @@ class GalleryViewModel(
                     Log.e("GalleryViewModel", "Failed to delete file: $uri", e)
                 }
 
-                // Remove from preferences
-                preferencesManager.removeUri(uri)
+                // Remove from preferences, with the display sized copy
+                removeFromPlaylist(uri)
             }
             loadMediaItems()
             deselectAll()
@@ -544,60 +603,38 @@ class GalleryViewModel(
 
     fun replaceMedia(oldUri: Uri, newUri: Uri) {
         viewModelScope.launch {
-            preferencesManager.removeUri(oldUri)
+            withContext(Dispatchers.IO) { removeFromPlaylist(oldUri) }
             preferencesManager.addUri(newUri)
             loadMediaItems()
             deselectAll()
         }
     }
 
+    /**
+     * Removes an item from the playlist with its display sized copy, see [PlaylistRemover]. Does I/O.
+     */
+    private fun removeFromPlaylist(uri: Uri) {
+        PlaylistRemover.remove(context, preferencesManager, uri)
+    }
+
     fun refreshMediaItem(uri: Uri) {
         viewModelScope.launch {
-            val currentItems = _uiState.value.mediaItems.toMutableList()
-            val index = currentItems.indexOfFirst { it.uri == uri }
-
-            if (index != -1) {
+            if (index.contains(uri)) {
                 // Refresh specific item
-                var name = currentItems[index].name
-                var lastModified =
-                        System.currentTimeMillis() // Assume modified now if we can't get it
-
-                try {
-                    context.contentResolver.query(
-                                    uri,
-                                    arrayOf(
-                                            MediaStore.MediaColumns.DISPLAY_NAME,
-                                            MediaStore.MediaColumns.DATE_MODIFIED
-                                    ),
-                                    null,
-                                    null,
-                                    null
-                            )
-                            ?.use { cursor ->
-                                if (cursor.moveToFirst()) {
-                                    val nameIndex =
-                                            cursor.getColumnIndex(
-                                                    MediaStore.MediaColumns.DISPLAY_NAME
-                                            )
-                                    val dateIndex =
-                                            cursor.getColumnIndex(
-                                                    MediaStore.MediaColumns.DATE_MODIFIED
-                                            )
-                                    if (nameIndex != -1) name = cursor.getString(nameIndex) ?: name
-                                    if (dateIndex != -1) lastModified = cursor.getLong(dateIndex)
-                                }
-                            }
-                } catch (e: Exception) {
-                    Log.e("GalleryViewModel", "Error refreshing file info for $uri", e)
-                }
-
-                val updatedItem = currentItems[index].copy(name = name, lastModified = lastModified)
-                currentItems[index] = updatedItem
+                val itemMetadata =
+                        withContext(Dispatchers.IO) {
+                            MediaMetadata.loadAll(context, listOf(uri))[uri]
+                        }
+                val newIndex =
+                        if (itemMetadata != null) {
+                            index.withMetadata(mapOf(uri to itemMetadata))
+                        } else {
+                            // Assume modified now if we can't get it
+                            index.withLastModified(uri, System.currentTimeMillis())
+                        }
 
                 // Re-sort if necessary (optional, but good for consistency)
-                val sortedItems = sortMediaItems(currentItems, _uiState.value.sortOption)
-
-                _uiState.value = _uiState.value.copy(mediaItems = sortedItems)
+                showIndex(newIndex, _uiState.value.selectedItems)
                 Log.d("GalleryViewModel", "Refreshed single item: $uri")
             } else {
                 Log.w("GalleryViewModel", "Item to refresh not found: $uri, reloading all")
@@ -606,14 +643,6 @@ class GalleryViewModel(
         }
     }
 
-    private fun getFilteredMediaItems(): List<MediaItem> {
-        return when (_uiState.value.currentFilter) {
-            MediaFilter.IMAGES_ONLY -> _uiState.value.mediaItems.filter { !it.isVideo }
-            MediaFilter.VIDEOS_ONLY -> _uiState.value.mediaItems.filter { it.isVideo }
-            MediaFilter.ALL -> _uiState.value.mediaItems
-        }
-    }
-
     private fun isVideoUri(uri: Uri): Boolean {
         return try {
             val mimeType = context.contentResolver.getType(uri)
@@ -624,6 +653,8 @@ class GalleryViewModel(
     }
 }
 
+private const val SYNC_DELAY_MS = 500L
+
 class GalleryViewModelFactory(
         private val context: Context,
         private val preferencesManager: SharedPreferencesManager
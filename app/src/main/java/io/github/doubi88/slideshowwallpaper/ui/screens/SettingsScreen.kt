@@ -97,6 +97,27 @@ fun SettingsScreen(
 
         Divider()
 
+        // Transcode Setting
+        ListItem(
+                headlineContent = { Text("Optimize Large Videos") },
+                supportingContent = { Text("Save a screen sized copy of 4K, 60 fps and HDR videos") },
+                leadingContent = {
+                    Icon(
+                            Icons.Default.Compress,
+                            contentDescription = null,
+                            tint = MaterialTheme.colorScheme.primary
+                    )
+                },
+                trailingContent = {
+                    Switch(
+                            checked = uiState.transcodeVideos,
+                            onCheckedChange = { viewModel.setTranscodeVideos(it) }
+                    )
+                }
+        )
+
+        Divider()
+
         // Order Setting
         ListItem(
                 headlineContent = { Text("Playback Order") },
@@ -9,6 +9,7 @@ import kotlinx.coroutines.flow.asStateFlow
 data class SettingsUiState(
         val interval: Int = 5,
         val muteVideos: Boolean = false,
+        val transcodeVideos: Boolean = false,
         val playbackOrder: String = "Sequential",
         val displayMode: String = "Fit",
         val swipeToChange: Boolean = false,
@@ -50,6 +51,7 @@ class SettingsViewModel(private val preferencesManager: SharedPreferencesManager
                 _uiState.value.copy(
                         interval = preferencesManager.secondsBetweenImages,
                         muteVideos = preferencesManager.muteVideos,
+                        transcodeVideos = preferencesManager.transcodeVideos,
                         playbackOrder = playbackOrderDisplay,
                         displayMode = displayModeDisplay,
                         swipeToChange = preferencesManager.swipeToChange,
@@ -68,6 +70,11 @@ class SettingsViewModel(private val preferencesManager: SharedPreferencesManager
         preferencesManager.preferences.edit().putBoolean("mute_videos", muted).apply()
     }
 
+    fun setTranscodeVideos(enabled: Boolean) {
+        _uiState.value = _uiState.value.copy(transcodeVideos = enabled)
+        preferencesManager.transcodeVideos = enabled
+    }
+
     fun setPlaybackOrder(order: String) {
         _uiState.value = _uiState.value.copy(playbackOrder = order)
         // Both "Random" and "Shuffle" map to "random" preference value
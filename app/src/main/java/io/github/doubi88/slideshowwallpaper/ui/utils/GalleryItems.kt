@@ -0,0 +1,42 @@
+package io.github.doubi88.slideshowwallpaper.ui.utils
+
+import android.net.Uri
+import android.util.LruCache
+import io.github.doubi88.slideshowwallpaper.ui.screens.MediaItem
+
+/**
+ * The items the gallery shows, in display order. Only positions into the [MediaIndex] are kept for all of them;
+ * the [MediaItem]s are created a page at a time when the grid reaches them, and only the pages around the visible
+ * window are kept. The keys of all items stay in the index.
+ */
+class GalleryItems(private val index: MediaIndex, private val order: IntArray) {
+    private val pages = LruCache<Int, List<MediaItem>>(MAX_PAGES)
+
+    val size: Int
+        get() = order.size
+
+    /**
+     * A stable key for the grid, without creating the page.
+     */
+    fun key(position: Int): Uri = index.uriAt(order[position])
+
+    operator fun get(position: Int): MediaItem {
+        val page = position / PAGE_SIZE
+        val items = pages.get(page) ?: loadPage(page).also { pages.put(page, it) }
+        return items[position - page * PAGE_SIZE]
+    }
+
+    private fun loadPage(page: Int): List<MediaItem> {
+        val from = page * PAGE_SIZE
+        val to = minOf(from + PAGE_SIZE, order.size)
+        return (from until to).map { index.itemAt(order[it]) }
+    }
+
+    companion object {
+        private const val PAGE_SIZE = 60
+        // The visible window and a page before and after it, even with five small columns
+        private const val MAX_PAGES = 4
+
+        val EMPTY = GalleryItems(MediaIndex.EMPTY, IntArray(0))
+    }
+}
@@ -0,0 +1,168 @@
+package io.github.doubi88.slideshowwallpaper.ui.utils
+
+import android.content.Context
+import android.net.Uri
+import android.util.Log
+import io.github.doubi88.slideshowwallpaper.ui.screens.MediaFilter
+import io.github.doubi88.slideshowwallpaper.ui.screens.MediaItem
+import io.github.doubi88.slideshowwallpaper.ui.screens.SortOption
+import io.github.doubi88.slideshowwallpaper.utilities.MediaMetadata
+
+/**
+ * The sort and filter keys of all saved items in flat arrays, in the order of the playlist. The gallery sorts and
+ * filters positions into it and creates its items page by page, see [GalleryItems].
+ *
+ * The index still grows with the playlist, by a uri, a name and a few bytes per item. Sorting by date or name needs
+ * the keys of all items, and the playlist is a list of uris of several providers, so it is not paged from the
+ * provider.
+ *
+ * Immutable, changes return a new index.
+ */
+class MediaIndex private constructor(
+    private val uris: Array<Uri>,
+    private val videos: BooleanArray,
+    private val names: Array<String>,
+    private val lastModified: LongArray
+) {
+    val size: Int
+        get() = uris.size
+
+    fun uriAt(position: Int): Uri = uris[position]
+
+    fun itemAt(position: Int): MediaItem =
+        MediaItem(uris[position], videos[position], names[position], lastModified[position])
+
+    fun uris(): List<Uri> = uris.asList()
+
+    fun contains(uri: Uri): Boolean = uris.contains(uri)
+
+    /**
+     * @return The positions of the items passing the filter, in the order of the sort option.
+     */
+    fun order(sortOption: SortOption, filter: MediaFilter): IntArray {
+        val positions = (0 until size).filter { position ->
+            when (filter) {
+                MediaFilter.IMAGES_ONLY -> !videos[position]
+                MediaFilter.VIDEOS_ONLY -> videos[position]
+                MediaFilter.ALL -> true
+            }
+        }
+        val sorted = when (sortOption) {
+            SortOption.DATE_DESC -> positions.sortedByDescending { lastModified[it] }
+            SortOption.DATE_ASC -> positions.sortedBy { lastModified[it] }
+            SortOption.NAME_ASC -> positions.sortedBy { names[it] }
+            SortOption.NAME_DESC -> positions.sortedByDescending { names[it] }
+        }
+        return sorted.toIntArray()
+    }
+
+    /**
+     * @return An index without the uris, or this index if none of them is in it.
+     */
+    fun without(removed: Set<Uri>): MediaIndex {
+        if (removed.isEmpty()) {
+            return this
+        }
+        val kept = (0 until size).filter { uris[it] !in removed }
+        if (kept.size == size) {
+            return this
+        }
+        return MediaIndex(
+            Array(kept.size) { uris[kept[it]] },
+            BooleanArray(kept.size) { videos[kept[it]] },
+            Array(kept.size) { names[kept[it]] },
+            LongArray(kept.size) { lastModified[kept[it]] }
+        )
+    }
+
+    /**
+     * @return An index with the new metadata of the items, or this index if nothing changed.
+     */
+    fun withMetadata(metadata: Map<Uri, MediaMetadata>): MediaIndex {
+        val result = MediaIndex(uris, videos.copyOf(), names.copyOf(), lastModified.copyOf())
+        var changed = false
+        for (position in 0 until size) {
+            val itemMetadata = metadata[uris[position]] ?: continue
+            changed = result.set(
+                position,
+                itemMetadata.isVideo,
+                itemMetadata.name ?: names[position],
+                itemMetadata.lastModified
+            ) || changed
+        }
+        return if (changed) result else this
+    }
+
+    /**
+     * @return An index with the new time of the item, or this index if it is not in it.
+     */
+    fun withLastModified(uri: Uri, lastModified: Long): MediaIndex {
+        val position = uris.indexOf(uri)
+        if (position < 0) {
+            return this
+        }
+        val result = MediaIndex(uris, videos.copyOf(), names.copyOf(), this.lastModified.copyOf())
+        result.set(position, videos[position], names[position], lastModified)
+        return result
+    }
+
+    private fun set(position: Int, isVideo: Boolean, name: String, lastModified: Long): Boolean {
+        if (videos[position] == isVideo && names[position] == name &&
+            this.lastModified[position] == lastModified) {
+            return false
+        }
+        videos[position] = isVideo
+        names[position] = name
+        this.lastModified[position] = lastModified
+        return true
+    }
+
+    companion object {
+        private const val TAG = "MediaIndex"
+        private const val BATCH_SIZE = 500
+
+        val EMPTY = MediaIndex(emptyArray(), BooleanArray(0), emptyArray(), LongArray(0))
+
+        /**
+         * Queries the metadata of the whole playlist in batches and keeps only the keys, the [MediaMetadata] of a
+         * batch is dropped before the next one is queried. Does I/O, must not be called on the main thread.
+         *
+         * @param missing Receives the uris that no longer exist, they are not in the index.
+         */
+        fun load(context: Context, playlist: List<Uri>, missing: MutableSet<Uri>): MediaIndex {
+            val uris = ArrayList<Uri>(playlist.size)
+            val videos = ArrayList<Boolean>(playlist.size)
+            val names = ArrayList<String>(playlist.size)
+            val lastModified = ArrayList<Long>(playlist.size)
+            for (from in playlist.indices step BATCH_SIZE) {
+                val batch = playlist.subList(from, minOf(from + BATCH_SIZE, playlist.size))
+                val metadata = MediaMetadata.loadAll(context, batch, missing)
+                for (uri in batch) {
+                    if (uri in missing) {
+                        continue
+                    }
+                    val itemMetadata = metadata[uri]
+                    uris.add(uri)
+                    videos.add(itemMetadata?.isVideo ?: isVideo(context, uri))
+                    names.add(itemMetadata?.name ?: "Unknown")
+                    lastModified.add(itemMetadata?.lastModified ?: 0L)
+                }
+            }
+            return MediaIndex(
+                uris.toTypedArray(),
+                videos.toBooleanArray(),
+                names.toTypedArray(),
+                lastModified.toLongArray()
+            )
+        }
+
+        private fun isVideo(context: Context, uri: Uri): Boolean {
+            return try {
+                context.contentResolver.getType(uri)?.startsWith("video/") == true
+            } catch (e: Exception) {
+                Log.w(TAG, "Could not get the type of $uri", e)
+                false
+            }
+        }
+    }
+}
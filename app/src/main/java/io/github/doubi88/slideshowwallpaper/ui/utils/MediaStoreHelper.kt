@@ -14,12 +14,17 @@ object MediaStoreHelper {
     private const val ALBUM_NAME = "LumaLoop"
     private const val TAG = "MediaStoreHelper"
     
-    suspend fun copyToPublicAlbum(context: Context, sourceUri: Uri, originalName: String? = null): Uri? = withContext(Dispatchers.IO) {
+    suspend fun copyToPublicAlbum(
+        context: Context,
+        sourceUri: Uri,
+        originalName: String? = null,
+        sourceMimeType: String? = null
+    ): Uri? = withContext(Dispatchers.IO) {
         try {
             val inputStream = context.contentResolver.openInputStream(sourceUri) ?: return@withContext null
             
-            // Get MIME type
-            val mimeType = context.contentResolver.getType(sourceUri) ?: "image/jpeg"
+            // Get MIME type, file uris have none
+            val mimeType = sourceMimeType ?: context.contentResolver.getType(sourceUri) ?: "image/jpeg"
             val isVideo = mimeType.startsWith("video/")
             
             // Determine file extension
@@ -2,29 +2,31 @@ package io.github.doubi88.slideshowwallpaper.ui.utils
 
 import android.content.Context
 import android.graphics.Bitmap
-import android.media.MediaMetadataRetriever
 import android.net.Uri
 import android.util.Log
+import io.github.doubi88.slideshowwallpaper.utilities.ImageLoader
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.withContext
 
 object VideoThumbnailLoader {
-    
-    suspend fun loadThumbnail(context: Context, uri: Uri): Bitmap? = withContext(Dispatchers.IO) {
-        val retriever = MediaMetadataRetriever()
+
+    // Large enough for a card of the gallery grid
+    private const val THUMBNAIL_SIZE = 512
+
+    /**
+     * Loads the thumbnail of the provider if there is one, a scaled frame otherwise.
+     */
+    suspend fun loadThumbnail(
+        context: Context,
+        uri: Uri,
+        width: Int = THUMBNAIL_SIZE,
+        height: Int = THUMBNAIL_SIZE
+    ): Bitmap? = withContext(Dispatchers.IO) {
         try {
-            retriever.setDataSource(context, uri)
-            // Get frame at 1 second or first frame
-            retriever.getFrameAtTime(1000000) // 1 second in microseconds
+            ImageLoader.loadThumbnail(uri, context, "video/*", width, height)
         } catch (e: Exception) {
             Log.e("VideoThumbnailLoader", "Error loading video thumbnail", e)
             null
-        } finally {
-            try {
-                retriever.release()
-            } catch (e: Exception) {
-                Log.e("VideoThumbnailLoader", "Error releasing retriever", e)
-            }
         }
     }
 }
@@ -0,0 +1,159 @@
+package io.github.doubi88.slideshowwallpaper.ui.utils
+
+import android.content.Context
+import android.media.MediaExtractor
+import android.media.MediaFormat
+import android.net.Uri
+import android.os.Build
+import android.util.Log
+import androidx.media3.common.MediaItem
+import androidx.media3.common.MimeTypes
+import androidx.media3.common.util.UnstableApi
+import androidx.media3.effect.FrameDropEffect
+import androidx.media3.effect.Presentation
+import androidx.media3.transformer.Composition
+import androidx.media3.transformer.EditedMediaItem
+import androidx.media3.transformer.EditedMediaItemSequence
+import androidx.media3.transformer.Effects
+import androidx.media3.transformer.ExportException
+import androidx.media3.transformer.ExportResult
+import androidx.media3.transformer.Transformer
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.suspendCancellableCoroutine
+import kotlinx.coroutines.withContext
+import java.io.File
+import kotlin.coroutines.resume
+import kotlin.math.max
+import kotlin.math.min
+
+/**
+ * Makes a display sized H.264 copy of videos, that are larger than the screen, faster than 30 fps or HDR.
+ * The wallpaper plays the copy, which saves decode power and memory on every play.
+ */
+@UnstableApi
+object VideoTranscoder {
+    private const val TAG = "VideoTranscoder"
+    private const val MAX_FRAME_RATE = 30f
+
+    private data class VideoInfo(val width: Int, val height: Int, val frameRate: Float, val isHdr: Boolean)
+
+    /**
+     * @return The uri of the copy in the album, `sourceUri` itself if the video needs no copy, or `null` if it
+     * could not be transcoded.
+     */
+    suspend fun transcodeIfOversized(context: Context, sourceUri: Uri, originalName: String?): Uri? {
+        val metrics = context.resources.displayMetrics
+        val displayShortSide = min(metrics.widthPixels, metrics.heightPixels)
+        val info = withContext(Dispatchers.IO) { readVideoInfo(context, sourceUri) } ?: return null
+
+        val shortSide = min(info.width, info.height)
+        val tooLarge = shortSide > displayShortSide
+        val tooFast = info.frameRate > MAX_FRAME_RATE + 1
+        if (!tooLarge && !tooFast && !info.isHdr) {
+            return sourceUri
+        }
+        Log.d(TAG, "Transcoding $sourceUri (${info.width}x${info.height}, ${info.frameRate} fps, " +
+                "HDR ${info.isHdr}) for a ${metrics.widthPixels}x${metrics.heightPixels} display")
+
+        val output = File(File(context.cacheDir, "transcode"), "${System.currentTimeMillis()}.mp4")
+        output.parentFile?.mkdirs()
+        try {
+            val videoEffects = mutableListOf<androidx.media3.common.Effect>()
+            if (tooLarge) {
+                // The height after rotation, so the short side matches the display's short side
+                val height = if (info.height <= info.width) displayShortSide
+                        else (info.height.toLong() * displayShortSide / info.width).toInt()
+                videoEffects.add(Presentation.createForHeight(height and 1.inv()))
+            }
+            if (tooFast) {
+                videoEffects.add(FrameDropEffect.createDefaultFrameDropEffect(MAX_FRAME_RATE))
+            }
+            val editedMediaItem = EditedMediaItem.Builder(MediaItem.fromUri(sourceUri))
+                    .setEffects(Effects(emptyList(), videoEffects))
+                    .build()
+            val composition = Composition.Builder(EditedMediaItemSequence(editedMediaItem))
+                    .setHdrMode(Composition.HDR_MODE_TONE_MAP_HDR_TO_SDR_USING_OPEN_GL)
+                    .build()
+
+            val start = System.currentTimeMillis()
+            if (!export(context, composition, output)) {
+                return null
+            }
+            Log.d(TAG, "Transcoded $sourceUri in ${System.currentTimeMillis() - start}ms, " +
+                    "${output.length()} bytes")
+
+            val name = originalName?.let { "${it}_display" } ?: "display"
+            return MediaStoreHelper.copyToPublicAlbum(context, Uri.fromFile(output), name, MimeTypes.VIDEO_MP4)
+        } finally {
+            output.delete()
+        }
+    }
+
+    /**
+     * Transformer has to be used on a thread with a looper, the main thread here.
+     */
+    private suspend fun export(context: Context, composition: Composition, output: File): Boolean =
+            withContext(Dispatchers.Main) {
+                suspendCancellableCoroutine { continuation ->
+                    val transformer = Transformer.Builder(context)
+                            .setVideoMimeType(MimeTypes.VIDEO_H264)
+                            .addListener(object : Transformer.Listener {
+                                override fun onCompleted(composition: Composition, exportResult: ExportResult) {
+                                    continuation.resume(true)
+                                }
+
+                                override fun onError(
+                                        composition: Composition,
+                                        exportResult: ExportResult,
+                                        exportException: ExportException
+                                ) {
+                                    Log.e(TAG, "Transcoding failed", exportException)
+                                    continuation.resume(false)
+                                }
+                            })
+                            .build()
+                    continuation.invokeOnCancellation {
+                        // Called on the cancelling thread, the transformer needs its own
+                        android.os.Handler(android.os.Looper.getMainLooper()).post { transformer.cancel() }
+                    }
+                    transformer.start(composition, output.absolutePath)
+                }
+            }
+
+    private fun readVideoInfo(context: Context, uri: Uri): VideoInfo? {
+        val extractor = MediaExtractor()
+        try {
+            extractor.setDataSource(context, uri, null)
+            for (i in 0 until extractor.trackCount) {
+                val format = extractor.getTrackFormat(i)
+                if (format.getString(MediaFormat.KEY_MIME)?.startsWith("video/") != true) {
+                    continue
+                }
+                var width = format.getInteger(MediaFormat.KEY_WIDTH)
+                var height = format.getInteger(MediaFormat.KEY_HEIGHT)
+                val rotation = if (format.containsKey("rotation-degrees")) format.getInteger("rotation-degrees") else 0
+                if (rotation % 180 != 0) {
+                    width = height.also { height = width }
+                }
+                val frameRate = if (format.containsKey(MediaFormat.KEY_FRAME_RATE)) {
+                    try {
+                        format.getInteger(MediaFormat.KEY_FRAME_RATE).toFloat()
+                    } catch (e: ClassCastException) {
+                        format.getFloat(MediaFormat.KEY_FRAME_RATE)
+                    }
+                } else 0f
+                val isHdr = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N &&
+                        format.containsKey(MediaFormat.KEY_COLOR_TRANSFER) &&
+                        format.getInteger(MediaFormat.KEY_COLOR_TRANSFER).let {
+                            it == MediaFormat.COLOR_TRANSFER_ST2084 || it == MediaFormat.COLOR_TRANSFER_HLG
+                        }
+                return VideoInfo(max(width, 1), max(height, 1), frameRate, isHdr)
+            }
+        } catch (e: Exception) {
+            Log.w(TAG, "Could not read format of $uri", e)
+        } finally {
+            extractor.release()
+        }
+        return null
+    }
+}
@@ -0,0 +1,93 @@
+package io.github.doubi88.slideshowwallpaper.utilities;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.MediaStore;
+import android.provider.OpenableColumns;
+import android.util.Log;
+
+/**
+ * Buffer sizes for one video, chosen from its bitrate, duration and size and the memory class of the device.
+ */
+public enum BufferProfile {
+    /** Clips up to 15 seconds: start with very little data, the whole clip fits into the buffer anyway. */
+    SHORT_CLIP(1000, 15000, 250, 1000, 32),
+    STANDARD(2500, 10000, 1500, 2000, 64),
+    /** 4K and other files above 20 Mbit/s: a short buffer, so the allocations stay off the heap limit. */
+    HIGH_BITRATE(1500, 4000, 1000, 2000, 48);
+
+    private static final String TAG = "BufferProfile";
+
+    private static final long SHORT_CLIP_MAX_DURATION_MS = 15000;
+    private static final long HIGH_BITRATE_BITS_PER_SECOND = 20000000;
+
+    public final int minBufferMs;
+    public final int maxBufferMs;
+    public final int bufferForPlaybackMs;
+    public final int bufferForPlaybackAfterRebufferMs;
+    private final int maxBufferMb;
+
+    BufferProfile(int minBufferMs, int maxBufferMs, int bufferForPlaybackMs, int bufferForPlaybackAfterRebufferMs,
+            int maxBufferMb) {
+        this.minBufferMs = minBufferMs;
+        this.maxBufferMs = maxBufferMs;
+        this.bufferForPlaybackMs = bufferForPlaybackMs;
+        this.bufferForPlaybackAfterRebufferMs = bufferForPlaybackAfterRebufferMs;
+        this.maxBufferMb = maxBufferMb;
+    }
+
+    /**
+     * @param memoryClassMb The heap limit of the app, see {@link ActivityManager#getMemoryClass()}.
+     * @return The maximum number of bytes to buffer, at most a quarter of the heap.
+     */
+    public int getMaxBufferBytes(int memoryClassMb) {
+        return Math.min(maxBufferMb, Math.max(8, memoryClassMb / 4)) * 1024 * 1024;
+    }
+
+    /**
+     * @param sizeBytes The file size, {@code 0} or less if unknown.
+     * @param durationMs The duration, {@code 0} or less if unknown.
+     */
+    public static BufferProfile select(long sizeBytes, long durationMs) {
+        if (durationMs > 0 && durationMs <= SHORT_CLIP_MAX_DURATION_MS) {
+            return SHORT_CLIP;
+        }
+        if (sizeBytes > 0 && durationMs > 0 && sizeBytes * 8 * 1000 / durationMs >= HIGH_BITRATE_BITS_PER_SECOND) {
+            return HIGH_BITRATE;
+        }
+        return STANDARD;
+    }
+
+    /**
+     * Reads size and duration from the content provider. Unknown values fall back to {@link #STANDARD}.
+     */
+    public static BufferProfile forUri(Context context, Uri uri) {
+        long sizeBytes = 0;
+        long durationMs = 0;
+        try (Cursor cursor = context.getContentResolver().query(uri, null, null, null, null)) {
+            if (cursor != null && cursor.moveToFirst()) {
+                int sizeIndex = cursor.getColumnIndex(OpenableColumns.SIZE);
+                if (sizeIndex >= 0 && !cursor.isNull(sizeIndex)) {
+                    sizeBytes = cursor.getLong(sizeIndex);
+                }
+                // Only MediaStore uris have a duration column
+                int durationIndex = cursor.getColumnIndex(MediaStore.Video.VideoColumns.DURATION);
+                if (durationIndex >= 0 && !cursor.isNull(durationIndex)) {
+                    durationMs = cursor.getLong(durationIndex);
+                }
+            }
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Could not query " + uri, e);
+        }
+        BufferProfile result = select(sizeBytes, durationMs);
+        Log.d(TAG, result + " for " + uri + " (" + sizeBytes + " bytes, " + durationMs + "ms)");
+        return result;
+    }
+
+    public static int getMemoryClass(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        return activityManager != null ? activityManager.getMemoryClass() : 64;
+    }
+}
@@ -0,0 +1,45 @@
+package io.github.doubi88.slideshowwallpaper.utilities;
+
+import android.os.CancellationSignal;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * Fails the next read once the signal is cancelled, so a running {@link android.graphics.BitmapFactory} decode
+ * stops early instead of reading the whole file.
+ */
+public class CancellableInputStream extends FilterInputStream {
+    private final CancellationSignal signal;
+
+    public CancellableInputStream(InputStream in, CancellationSignal signal) {
+        super(in);
+        this.signal = signal;
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkCancelled();
+        return super.read();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        checkCancelled();
+        return super.read(b, off, len);
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        checkCancelled();
+        return super.skip(n);
+    }
+
+    private void checkCancelled() throws InterruptedIOException {
+        if (signal.isCanceled()) {
+            throw new InterruptedIOException("Decode cancelled");
+        }
+    }
+}
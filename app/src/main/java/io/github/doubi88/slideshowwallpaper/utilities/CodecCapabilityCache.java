@@ -0,0 +1,102 @@
+package io.github.doubi88.slideshowwallpaper.utilities;
+
+import android.content.Context;
+import android.media.MediaCodecList;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.net.Uri;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.IOException;
+
+import io.github.doubi88.slideshowwallpaper.preferences.SharedPreferencesManager;
+
+/**
+ * Checks once per video, whether a decoder of this device supports its MIME type, resolution, profile and
+ * frame rate. The results are persisted with the playlist, so unplayable videos are skipped before the
+ * player opens them.
+ */
+public class CodecCapabilityCache {
+    private static final String TAG = "CodecCapabilityCache";
+
+    private final SharedPreferencesManager manager;
+    private MediaCodecList codecList;
+
+    public CodecCapabilityCache(SharedPreferencesManager manager) {
+        this.manager = manager;
+    }
+
+    /**
+     * @return {@code true} if the video was probed and no decoder can play it.
+     */
+    public boolean isKnownUnsupported(Uri uri) {
+        return Boolean.FALSE.equals(manager.getCodecSupport(uri));
+    }
+
+    public boolean isProbed(Uri uri) {
+        return manager.getCodecSupport(uri) != null;
+    }
+
+    /**
+     * Called when the player failed to decode the video, even though the probe found a decoder.
+     */
+    public void markUnsupported(Uri uri) {
+        manager.setCodecSupport(uri, false);
+    }
+
+    /**
+     * Reads the video format and looks for a matching decoder. Does I/O, must not be called on the main thread.
+     * Files that cannot be read are not marked, they may be readable later.
+     *
+     * @return Whether the video is supported, {@code true} if that could not be determined.
+     */
+    public synchronized boolean probe(Context context, Uri uri) {
+        Boolean known = manager.getCodecSupport(uri);
+        if (known != null) {
+            return known;
+        }
+        // A transcoded copy is played instead of the original
+        MediaFormat format = readVideoFormat(context, manager.getPlaybackUri(uri));
+        if (format == null) {
+            return true;
+        }
+        if (Build.VERSION.SDK_INT == Build.VERSION_CODES.LOLLIPOP) {
+            // findDecoderForFormat does not accept a frame rate on API 21
+            format.setString(MediaFormat.KEY_FRAME_RATE, null);
+        }
+        if (codecList == null) {
+            codecList = new MediaCodecList(MediaCodecList.REGULAR_CODECS);
+        }
+        String decoder;
+        try {
+            decoder = codecList.findDecoderForFormat(format);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Invalid format of " + uri + ": " + format, e);
+            return true;
+        }
+        boolean supported = decoder != null;
+        Log.d(TAG, (supported ? "Decoder " + decoder : "No decoder") + " for " + uri + ": " + format);
+        manager.setCodecSupport(uri, supported);
+        return supported;
+    }
+
+    private MediaFormat readVideoFormat(Context context, Uri uri) {
+        MediaExtractor extractor = new MediaExtractor();
+        try {
+            extractor.setDataSource(context, uri, null);
+            for (int i = 0; i < extractor.getTrackCount(); i++) {
+                MediaFormat format = extractor.getTrackFormat(i);
+                String mime = format.getString(MediaFormat.KEY_MIME);
+                if (mime != null && mime.startsWith("video/")) {
+                    return format;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Could not read format of " + uri, e);
+        } finally {
+            extractor.release();
+        }
+        return null;
+    }
+}
@@ -21,18 +21,22 @@ package io.github.doubi88.slideshowwallpaper.utilities;
 import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.Canvas;
+import androidx.media3.common.C;
 import androidx.media3.common.MediaItem;
 import androidx.media3.common.PlaybackException;
 import androidx.media3.common.Player;
 import androidx.media3.common.Tracks;
 import androidx.media3.common.MimeTypes;
 import androidx.media3.exoplayer.ExoPlayer;
+import androidx.media3.exoplayer.LoadControl;
 import androidx.media3.exoplayer.image.ImageRenderer;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
+import android.os.CancellationSignal;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.Surface;
 import android.view.SurfaceHolder;
@@ -46,14 +50,22 @@ import androidx.media3.exoplayer.ExoPlayer;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import io.github.doubi88.slideshowwallpaper.preferences.SharedPreferencesManager;
 
 public class CurrentMediaHandler {
     private static final String TAG = "CurrentMediaHandler";
 
+    // Number of upcoming videos queued in the player, so the next one is buffered while the current one plays
+    private static final int PLAYLIST_WINDOW = 2;
+
     private int currentIndex;
     private MediaInfo currentMedia;
 
@@ -62,57 +74,96 @@ public class CurrentMediaHandler {
     private int height;
     private Context context;
     private android.view.SurfaceHolder surfaceHolder;
-    private final Object lock = new Object();
     private Handler mainHandler;
 
-    private boolean runnable;
-    private boolean isPaused = false;
+    private final PlaybackStateMachine state = new PlaybackStateMachine();
 
     private ArrayList<NextMediaListener> nextMediaListeners;
 
-    private boolean isVideoPlaying = false;
     private ExoPlayer exoPlayer;
     private GLWallpaperRenderer glRenderer;
     private SurfaceTexture videoSurfaceTexture;
+    private VideoFramePacer framePacer;
+    private GLWallpaperRenderer videoSurfaceRenderer;
     private Surface videoSurface;
     private ExecutorService imageExecutor = Executors.newSingleThreadExecutor();
-    private Runnable imageTimerRunnable;
+    // Buffer profiles of queued and preloaded videos, computed on the image executor
+    private final Map<Uri, BufferProfile> bufferProfiles = new ConcurrentHashMap<>();
+    private Future<?> imageDecode;
+    private CancellationSignal decodeSignal;
+    private Future<?> imagePreload;
+    private CancellationSignal preloadSignal;
+    private final AtomicInteger imageGeneration = new AtomicInteger();
+    private final AtomicInteger pendingSteps = new AtomicInteger();
+    private final AtomicInteger pendingRequests = new AtomicInteger();
+    private final AtomicBoolean navigationPosted = new AtomicBoolean();
+    private final AtomicBoolean pendingForced = new AtomicBoolean();
+    private long navigationStartNanos = 0;
+    private int coalescedRequests = 0;
+    private final Runnable navigation = this::navigate;
+    private final SlideScheduler slideScheduler;
+    private boolean loopingClip = false;
+    private boolean clipLengthChecked = false;
+    private WallpaperLoadControl loadControl;
+    private int lastPlaybackState = Player.STATE_IDLE;
+    private final PlayerFactory playerFactory;
+    private final CodecCapabilityCache codecCapabilities;
+    private int consecutiveSkips = 0;
+    private final MediaFailureTracker failureTracker;
+    private final Runnable circuitRetry = () -> forceNextMedia(context);
+    private final Runnable standbyTimeout = () -> {
+        Log.d(TAG, "Warm standby expired");
+        stop();
+    };
+    private Uri preloadedUri;
+    private Bitmap preloadedBitmap;
+    private long renderedVideoFrames = 0;
+    private long droppedVideoFrames = 0;
+    private long switchStartNanos = 0;
+    private boolean switchGapless = false;
+    private int videoSwitches = 0;
+    private long totalSwitchLatencyMs = 0;
 
     public interface NextMediaListener {
         void nextMedia(MediaInfo media);
     }
 
+    /**
+     * Creates the player. Tests replace it with a fake.
+     */
+    interface PlayerFactory {
+        ExoPlayer create(Context context, LoadControl loadControl);
+    }
+
     public CurrentMediaHandler(SharedPreferencesManager manager, int width, int height, Context context,
             android.view.SurfaceHolder surfaceHolder) {
+        this(manager, width, height, context, surfaceHolder, (playerContext, loadControl) ->
+                new ExoPlayer.Builder(playerContext)
+                        .setLoadControl(loadControl)
+                        .build());
+    }
+
+    CurrentMediaHandler(SharedPreferencesManager manager, int width, int height, Context context,
+            android.view.SurfaceHolder surfaceHolder, PlayerFactory playerFactory) {
         this.manager = manager;
+        this.playerFactory = playerFactory;
         this.width = width;
         this.height = height;
         this.context = context;
         this.surfaceHolder = surfaceHolder;
         this.mainHandler = new Handler(Looper.getMainLooper());
-        this.runnable = true;
-        this.isPaused = false;
+        this.slideScheduler = new SlideScheduler(mainHandler, this::onSlideDue);
+        this.codecCapabilities = new CodecCapabilityCache(manager);
+        this.failureTracker = new MediaFailureTracker(context);
         nextMediaListeners = new ArrayList<>(1);
     }
 
     private void initializeExoPlayer() {
         if (exoPlayer == null) {
-            // Configure LoadControl for optimized video playback with large files
-            // Lower buffer sizes for faster startup, reduces memory usage
-            androidx.media3.exoplayer.DefaultLoadControl loadControl = new androidx.media3.exoplayer.DefaultLoadControl.Builder()
-                    .setBufferDurationsMs(
-                            2500, // Min buffer: 2.5s for fast startup
-                            10000, // Max buffer: 10s to limit memory usage
-                            1500, // Buffer for playback: 1.5s
-                            2000 // Buffer for re-buffer: 2s
-                    )
-                    .setPrioritizeTimeOverSizeThresholds(true)
-                    .build();
-
-            // Build ExoPlayer with optimized settings
-            exoPlayer = new ExoPlayer.Builder(context)
-                    .setLoadControl(loadControl)
-                    .build();
+            // Buffer sizes depend on the video and the device's heap. Also stops loading in warm standby.
+            loadControl = new WallpaperLoadControl(BufferProfile.getMemoryClass(context));
+
+            exoPlayer = playerFactory.create(context, loadControl);
 
             // Set video scaling mode for better performance
             exoPlayer.setVideoScalingMode(android.media.MediaCodec.VIDEO_SCALING_MODE_SCALE_TO_FIT);
@@ -122,6 +173,11 @@ public class CurrentMediaHandler {
             exoPlayer.addListener(new Player.Listener() {
                 @Override
                 public void onPlaybackStateChanged(int playbackState) {
+                    if (playbackState == Player.STATE_BUFFERING && lastPlaybackState == Player.STATE_READY
+                            && loadControl != null) {
+                        loadControl.recordRebuffer();
+                    }
+                    lastPlaybackState = playbackState;
                     if (playbackState == Player.STATE_ENDED) {
                         Log.d(TAG, "Media playback completed (video or image)");
                         forceNextMedia(context);
@@ -129,6 +185,17 @@ public class CurrentMediaHandler {
                         Log.d(TAG, "Buffering video...");
                     } else if (playbackState == Player.STATE_READY) {
                         Log.d(TAG, "Video ready to play");
+                        checkClipLength();
+                    }
+                }
+
+                @Override
+                public void onMediaItemTransition(MediaItem mediaItem, int reason) {
+                    // Seeks only come from advanceLoopingClip, repeats of a looping clip are ignored
+                    if ((reason == Player.MEDIA_ITEM_TRANSITION_REASON_AUTO
+                            || reason == Player.MEDIA_ITEM_TRANSITION_REASON_SEEK) && mediaItem != null) {
+                        // The seek is driven by the slide timer and stays on its grid, the end of a video is not
+                        onVideoAdvanced(mediaItem, reason == Player.MEDIA_ITEM_TRANSITION_REASON_AUTO);
                     }
                 }
 
@@ -140,8 +207,16 @@ public class CurrentMediaHandler {
                 @Override
                 public void onPlayerError(androidx.media3.common.PlaybackException error) {
                     Log.e(TAG, "ExoPlayer error: " + error.getMessage(), error);
-                    // Try to recover or skip to next media
-                    forceNextMedia(context);
+                    MediaItem failed = exoPlayer.getCurrentMediaItem();
+                    if (isDecoderError(error) && failed != null) {
+                        // The probe missed it, remember so the video is skipped before the player next time
+                        codecCapabilities.markUnsupported(Uri.parse(failed.mediaId));
+                    }
+                    if (failed != null) {
+                        onMediaFailed(Uri.parse(failed.mediaId));
+                    } else {
+                        forceNextMedia(context);
+                    }
                 }
             });
         }
@@ -152,102 +227,90 @@ public class CurrentMediaHandler {
      */
     private void prepareMedia(Uri uri, boolean isVideo) {
         Log.d(TAG, "prepareMedia: " + uri + " (isVideo=" + isVideo + ")");
+        // Results of older loads are discarded from now on
+        int generation = imageGeneration.incrementAndGet();
+        cancelImageDecode();
 
         initializeExoPlayer();
 
         // Initialize GL renderer if needed
         if (glRenderer == null && surfaceHolder != null) {
             glRenderer = new GLWallpaperRenderer(context);
+            glRenderer.setViewport(width, height);
             glRenderer.setSurface(surfaceHolder);
         }
 
         try {
+            if (isVideo && codecCapabilities.isKnownUnsupported(uri)) {
+                skipUnplayable(uri);
+                return;
+            }
             if (isVideo) {
-                // For video: Create fresh SurfaceTexture every time to avoid stale frames
-                if (videoSurfaceTexture != null) {
-                    videoSurfaceTexture.release();
-                    videoSurfaceTexture = null;
+                if (!codecCapabilities.isProbed(uri)) {
+                    // Too late for this time, but the result is there for the next round
+                    imageExecutor.execute(() -> codecCapabilities.probe(context, uri));
                 }
-                if (videoSurface != null) {
-                    videoSurface.release();
-                    videoSurface = null;
-                }
-
-                // Create new SurfaceTexture for this video
-                videoSurfaceTexture = new SurfaceTexture(glRenderer.getVideoTextureId());
-                videoSurfaceTexture.setOnFrameAvailableListener(surfaceTexture -> {
-                    // Always render when frame is available during video playback
-                    try {
-                        surfaceTexture.updateTexImage();
-                        if (glRenderer != null) {
-                            glRenderer.drawVideo();
-                        }
-                    } catch (Exception e) {
-                        Log.e(TAG, "Error rendering video frame", e);
-                    }
-                });
-                videoSurface = new Surface(videoSurfaceTexture);
+                consecutiveSkips = 0;
 
-                // Set the surface BEFORE setting isVideoPlaying
-                exoPlayer.setVideoSurface(videoSurface);
+                // One SurfaceTexture is kept for all videos, so the codec does not have to reconfigure its
+                // output surface on every switch. Stale frames of the previous video are dropped by the pacer.
+                ensureVideoSurface();
+                framePacer.startNewVideo();
+                framePacer.setMaxFps(manager.getVideoFpsCap());
+                startSwitchMeasurement(false);
 
                 // Now mark as video playing
-                isVideoPlaying = true;
+                state.playVideo();
 
-                MediaItem mediaItem = MediaItem.fromUri(uri);
+                MediaItem mediaItem = buildMediaItem(uri);
                 if (manager.getMuteVideos()) {
                     exoPlayer.setVolume(0f);
                 } else {
                     exoPlayer.setVolume(1f);
                 }
+                loadControl.setProfile(takeBufferProfile(uri));
+                lastPlaybackState = Player.STATE_IDLE;
                 exoPlayer.setMediaItem(mediaItem);
+                fillPlaylistWindow();
+                startVideoItem();
                 exoPlayer.prepare();
-                if (!isPaused) {
+                if (!state.isPaused()) {
                     exoPlayer.play();
                 }
                 Log.d(TAG, "Video playback started");
+                loadPoster(uri, true);
             } else {
                 // For images: Stop video first, then load image
-                isVideoPlaying = false;
+                state.startLoading();
+                loopingClip = false;
                 exoPlayer.stop();
                 exoPlayer.clearMediaItems();
 
-                imageExecutor.execute(() -> {
-                    try {
-                        InputStream inputStream = context.getContentResolver().openInputStream(uri);
-                        Bitmap bitmap = BitmapFactory.decodeStream(inputStream);
-                        if (inputStream != null)
-                            inputStream.close();
-
-                        if (bitmap != null) {
-                            new Handler(Looper.getMainLooper()).post(() -> {
-                                if (!isVideoPlaying && glRenderer != null) {
-                                    glRenderer.uploadImage(bitmap);
-                                    glRenderer.drawImage();
-
-                                    // Simulate playback duration for image
-                                    long durationMs = getImageDurationMs();
-
-                                    // Cancel previous timer if any
-                                    if (imageTimerRunnable != null) {
-                                        mainHandler.removeCallbacks(imageTimerRunnable);
-                                    }
-
-                                    imageTimerRunnable = () -> {
-                                        if (!isVideoPlaying && !isPaused) {
-                                            forceNextMedia(context);
-                                        }
-                                    };
-
-                                    mainHandler.postDelayed(imageTimerRunnable, durationMs);
-                                }
-                            });
+                if (glRenderer != null && glRenderer.isImageReady(uri)) {
+                    // Uploaded ahead of time, only the texture ids have to be swapped
+                    showUploadedImage(uri, generation);
+                } else {
+                    CancellationSignal signal = new CancellationSignal();
+                    decodeSignal = signal;
+                    imageDecode = imageExecutor.submit(() -> {
+                        try {
+                            Bitmap bitmap = decodeImage(uri, signal);
+                            if (bitmap != null) {
+                                mainHandler.post(() -> uploadAndShowImage(uri, bitmap, generation));
+                            } else if (!isSuperseded(signal, generation)) {
+                                Log.e(TAG, "Could not decode image " + uri);
+                                mainHandler.post(() -> onDecodeFailed(uri, generation));
+                            }
+                        } catch (IOException | SecurityException e) {
+                            if (isSuperseded(signal, generation)) {
+                                Log.d(TAG, "Decode of " + uri + " cancelled");
+                                return;
+                            }
+                            Log.e(TAG, "Error loading image", e);
+                            mainHandler.post(() -> onDecodeFailed(uri, generation));
                         }
-                    } catch (IOException e) {
-                        Log.e(TAG, "Error loading image", e);
-                        forceNextMedia(context);
-                    }
-                });
+                    });
+                }
             }
         } catch (Exception e) {
             Log.e(TAG, "Error preparing media: " + e.getMessage(), e);
@@ -255,6 +318,381 @@ public class CurrentMediaHandler {
         }
     }
 
+    /**
+     * Appends the upcoming videos to the player's playlist, until it holds {@link #PLAYLIST_WINDOW} items after
+     * the current one. Stops at the first image, images are not played by the player.
+     */
+    private void fillPlaylistWindow() {
+        int queued = exoPlayer.getMediaItemCount() - exoPlayer.getCurrentMediaItemIndex() - 1;
+        int count = manager.getImageUrisCount();
+        for (int offset = queued + 1; offset <= PLAYLIST_WINDOW && offset < count; offset++) {
+            Uri next = peekUri(context, offset);
+            if (next == null || failureTracker.isQuarantined(next)
+                    || MediaInfo.determineType(context, next) != MediaInfo.MediaType.VIDEO
+                    || codecCapabilities.isKnownUnsupported(next)) {
+                break;
+            }
+            exoPlayer.addMediaItem(buildMediaItem(next));
+            // Extracted while the current video plays, so the switch only reads the cache
+            loadPoster(next, false);
+            imageExecutor.execute(() -> computeBufferProfile(next));
+        }
+    }
+
+    /**
+     * Queries the buffer profile of a video that is going to play. Runs on the image executor, the provider
+     * query stays off the switch.
+     */
+    private void computeBufferProfile(Uri uri) {
+        if (!bufferProfiles.containsKey(uri)) {
+            bufferProfiles.put(uri, BufferProfile.forUri(context, manager.getPlaybackUri(uri)));
+        }
+    }
+
+    /**
+     * @return The profile computed ahead of time. If there is none, {@link BufferProfile#STANDARD} is used until
+     * the query in the background is done.
+     */
+    private BufferProfile takeBufferProfile(Uri uri) {
+        BufferProfile profile = bufferProfiles.remove(uri);
+        if (profile != null) {
+            return profile;
+        }
+        imageExecutor.execute(() -> {
+            BufferProfile computed = BufferProfile.forUri(context, manager.getPlaybackUri(uri));
+            mainHandler.post(() -> {
+                if (loadControl != null && currentMedia != null && uri.equals(currentMedia.getUri())) {
+                    loadControl.setProfile(computed);
+                }
+            });
+        });
+        return BufferProfile.STANDARD;
+    }
+
+    /**
+     * Loads the poster frame of a video from the {@link PosterCache} in the background, extracting it on first use.
+     * The poster is only used for the wallpaper colors.
+     *
+     * @param show {@code false} to only fill the cache.
+     */
+    private void loadPoster(Uri uri, boolean show) {
+        int posterWidth = width;
+        int posterHeight = height;
+        imageExecutor.execute(() -> {
+            Bitmap poster = PosterCache.getPoster(context, manager.getPlaybackUri(uri), posterWidth, posterHeight);
+            if (show && poster != null) {
+                mainHandler.post(() -> {
+                    if (currentMedia != null && uri.equals(currentMedia.getUri())) {
+                        currentMedia.setImage(poster);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * The media id is the playlist uri, the played uri may be a transcoded copy of it.
+     */
+    private MediaItem buildMediaItem(Uri uri) {
+        return new MediaItem.Builder()
+                .setUri(manager.getPlaybackUri(uri))
+                .setMediaId(uri.toString())
+                .build();
+    }
+
+    /**
+     * Called when the player moved on to the next queued video by itself. Advances the slideshow index
+     * to match and refills the playlist window.
+     *
+     * @param videoEnded {@code true} if the previous video played to its end. The next slide then gets a full
+     *                   interval from now, the grid of the slide before the video is out of date.
+     */
+    private void onVideoAdvanced(MediaItem mediaItem, boolean videoEnded) {
+        Uri expected = peekUri(context, 1);
+        Uri played = Uri.parse(mediaItem.mediaId);
+        if (!played.equals(expected)) {
+            // The playlist changed while the video was queued
+            Log.d(TAG, "Queued video " + played + " is no longer next, reloading");
+            forceNextMedia(context);
+            return;
+        }
+        startSwitchMeasurement(true);
+        loadControl.setProfile(takeBufferProfile(played));
+        Uri uri = getNextUri(context, Direction.NEXT, 1, videoEnded);
+        currentMedia = MediaLoader.loadMedia(uri, context, MediaInfo.MediaType.VIDEO);
+        notifyNextMediaListeners(currentMedia);
+        loadPoster(played, true);
+        startVideoItem();
+        // Played items are not needed anymore
+        for (int i = exoPlayer.getCurrentMediaItemIndex() - 1; i >= 0; i--) {
+            exoPlayer.removeMediaItem(i);
+        }
+        fillPlaylistWindow();
+    }
+
+    private void startSwitchMeasurement(boolean gapless) {
+        switchStartNanos = System.nanoTime();
+        switchGapless = gapless;
+    }
+
+    /**
+     * Called for every drawn video frame, records the time from the switch to the first frame of the new video.
+     */
+    private void onVideoFrameRendered() {
+        if (switchStartNanos == 0) {
+            return;
+        }
+        long latencyMs = (System.nanoTime() - switchStartNanos) / 1000000;
+        switchStartNanos = 0;
+        videoSwitches++;
+        totalSwitchLatencyMs += latencyMs;
+        if (!switchGapless && loadControl != null) {
+            loadControl.recordFirstFrame(latencyMs);
+        }
+        if (currentMedia != null) {
+            failureTracker.recordSuccess(currentMedia.getUri());
+        }
+        finishNavigationMeasurement();
+        Log.d(TAG, "Video switch latency: " + latencyMs + "ms (" + (switchGapless ? "gapless" : "prepared")
+                + "), average " + getAverageSwitchLatencyMs() + "ms");
+    }
+
+    /**
+     * @return The average time in milliseconds from a video switch to the first drawn frame of the new video.
+     */
+    public long getAverageSwitchLatencyMs() {
+        return videoSwitches > 0 ? totalSwitchLatencyMs / videoSwitches : 0;
+    }
+
+    /**
+     * Decodes the image at the size of the render target, which is smaller than the screen with a render scale.
+     */
+    private Bitmap decodeImage(Uri uri, CancellationSignal signal) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        Bitmap bitmap = MediaLoader.decodeBitmap(uri, context, width, height, signal);
+        Log.d(TAG, "Decoded image at " + width + "x" + height + " (render scale " + manager.getRenderScale()
+                + ") in " + (SystemClock.elapsedRealtime() - start) + "ms");
+        return bitmap;
+    }
+
+    /**
+     * Hands the decoded bitmap to the background upload context. Falls back to a synchronous upload,
+     * if the renderer has no upload context.
+     *
+     * @param generation The load the bitmap was decoded for. Bitmaps of older loads are dropped.
+     */
+    private void uploadAndShowImage(Uri uri, Bitmap bitmap, int generation) {
+        if (generation != imageGeneration.get()) {
+            Log.d(TAG, "Dropping stale decode of " + uri);
+            bitmap.recycle();
+            return;
+        }
+        if (state.isPlayingVideo() || glRenderer == null || currentMedia == null
+                || !uri.equals(currentMedia.getUri())) {
+            return;
+        }
+        currentMedia.setImage(bitmap);
+        boolean async = glRenderer.uploadImageAsync(uri, bitmap,
+                uploadedUri -> mainHandler.post(() -> showUploadedImage(uploadedUri, generation)));
+        if (!async) {
+            glRenderer.uploadImage(bitmap);
+            displayImage();
+        }
+    }
+
+    private void showUploadedImage(Uri uri, int generation) {
+        if (generation != imageGeneration.get()) {
+            return;
+        }
+        if (state.isPlayingVideo() || glRenderer == null || currentMedia == null || !uri.equals(currentMedia.getUri())) {
+            return;
+        }
+        if (glRenderer.swapUploadedImage()) {
+            if (uri.equals(preloadedUri)) {
+                currentMedia.setImage(preloadedBitmap);
+                preloadedUri = null;
+                preloadedBitmap = null;
+            }
+            displayImage();
+        }
+    }
+
+    /**
+     * @return {@code true} if a newer load started after this decode, its failure is not the item's fault.
+     */
+    private boolean isSuperseded(CancellationSignal signal, int generation) {
+        return signal.isCanceled() || generation != imageGeneration.get();
+    }
+
+    /**
+     * Checks the generation again on the main thread, a navigation may have started after the failure was posted.
+     */
+    private void onDecodeFailed(Uri uri, int generation) {
+        if (generation != imageGeneration.get()) {
+            Log.d(TAG, "Ignoring failed decode of superseded " + uri);
+            return;
+        }
+        onMediaFailed(uri);
+    }
+
+    /**
+     * Quarantines the failed item and moves on, unless the circuit breaker opened. Then the slideshow
+     * waits until it closes.
+     */
+    private void onMediaFailed(Uri uri) {
+        failureTracker.recordFailure(uri);
+        if (failureTracker.isCircuitOpen()) {
+            mainHandler.removeCallbacks(circuitRetry);
+            mainHandler.postDelayed(circuitRetry, failureTracker.getCircuitRemainingMs());
+        } else {
+            forceNextMedia(context);
+        }
+    }
+
+    /**
+     * Skips a video, that no decoder of this device can play. Gives up, if the whole playlist was skipped.
+     */
+    private void skipUnplayable(Uri uri) {
+        consecutiveSkips++;
+        if (consecutiveSkips >= manager.getImageUrisCount()) {
+            Log.w(TAG, "No playable media in the playlist");
+            return;
+        }
+        Log.d(TAG, "Skipping unsupported video " + uri);
+        forceNextMedia(context);
+    }
+
+    private static boolean isDecoderError(PlaybackException error) {
+        switch (error.errorCode) {
+            case PlaybackException.ERROR_CODE_DECODER_INIT_FAILED:
+            case PlaybackException.ERROR_CODE_DECODER_QUERY_FAILED:
+            case PlaybackException.ERROR_CODE_DECODING_FORMAT_EXCEEDS_CAPABILITIES:
+            case PlaybackException.ERROR_CODE_DECODING_FORMAT_UNSUPPORTED:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void displayImage() {
+        state.showImage();
+        consecutiveSkips = 0;
+        if (currentMedia != null) {
+            failureTracker.recordSuccess(currentMedia.getUri());
+        }
+        long start = SystemClock.elapsedRealtime();
+        glRenderer.drawImage();
+        // Without glFinish, this is the CPU time to submit the draw, the GPU finishes it asynchronously
+        Log.d(TAG, "Submitted image draw at " + width + "x" + height + " in " + (SystemClock.elapsedRealtime() - start) + "ms");
+        finishNavigationMeasurement();
+
+        // Simulate playback duration for image
+        scheduleNextSlide();
+
+        preloadNextImage();
+    }
+
+    /**
+     * Called for every new video. Its length is checked as soon as the player knows it.
+     */
+    private void startVideoItem() {
+        loopingClip = false;
+        clipLengthChecked = false;
+        exoPlayer.setRepeatMode(Player.REPEAT_MODE_OFF);
+        slideScheduler.cancel();
+        checkClipLength();
+    }
+
+    /**
+     * A clip shorter than the slide interval loops seamlessly (the player does not prepare it again) until the
+     * slide timer advances. Longer videos play to their end.
+     */
+    private void checkClipLength() {
+        if (clipLengthChecked || !state.isPlayingVideo() || exoPlayer == null) {
+            return;
+        }
+        long durationMs = exoPlayer.getDuration();
+        if (durationMs == C.TIME_UNSET) {
+            return;
+        }
+        clipLengthChecked = true;
+        long intervalMs = getImageDurationMs();
+        if (durationMs < intervalMs) {
+            Log.d(TAG, "Looping " + durationMs + "ms clip for " + intervalMs + "ms");
+            loopingClip = true;
+            exoPlayer.setRepeatMode(Player.REPEAT_MODE_ONE);
+            // The last update was set when the video started
+            scheduleNextSlide();
+        }
+    }
+
+    private void advanceLoopingClip() {
+        loopingClip = false;
+        exoPlayer.setRepeatMode(Player.REPEAT_MODE_OFF);
+        if (exoPlayer.hasNextMediaItem()) {
+            // The next video is already buffered, onVideoAdvanced follows
+            exoPlayer.seekToNextMediaItem();
+        } else {
+            requestNavigation(1, false);
+        }
+    }
+
+    /**
+     * Schedules the next advance at the end of the current slide interval.
+     */
+    private void scheduleNextSlide() {
+        slideScheduler.schedule(manager.getLastUpdate(), getImageDurationMs());
+    }
+
+    private void onSlideDue() {
+        if (state.isPaused()) {
+            return;
+        }
+        if (!state.isPlayingVideo()) {
+            if (!navigationPosted.get()) {
+                requestNavigation(1, false);
+            }
+        } else if (loopingClip) {
+            advanceLoopingClip();
+        }
+    }
+
+    /**
+     * Decodes and uploads the next slide while the current one is on screen, so the transition
+     * only has to swap textures.
+     */
+    private void preloadNextImage() {
+        Uri next = peekUri(context, 1);
+        if (next == null || (currentMedia != null && next.equals(currentMedia.getUri()))) {
+            return;
+        }
+        CancellationSignal signal = new CancellationSignal();
+        preloadSignal = signal;
+        imagePreload = imageExecutor.submit(() -> {
+            try {
+                if (MediaInfo.determineType(context, next) == MediaInfo.MediaType.VIDEO) {
+                    // Probed now, so an unplayable video is skipped without touching the player
+                    codecCapabilities.probe(context, next);
+                    computeBufferProfile(next);
+                    return;
+                }
+                Bitmap bitmap = decodeImage(next, signal);
+                if (bitmap != null) {
+                    mainHandler.post(() -> {
+                        if (glRenderer != null && glRenderer.uploadImageAsync(next, bitmap, null)) {
+                            preloadedUri = next;
+                            preloadedBitmap = bitmap;
+                        }
+                    });
+                }
+            } catch (IOException | SecurityException e) {
+                if (!signal.isCanceled()) {
+                    Log.w(TAG, "Could not preload " + next, e);
+                }
+            }
+        });
+    }
+
     /**
      * Prepare video using ExoPlayer.
      */
@@ -278,17 +716,52 @@ public class CurrentMediaHandler {
 
     public void updateSurface(SurfaceHolder holder) {
         this.surfaceHolder = holder;
-        // GLRenderer initialization is deferred to prepareMedia or can be done here if
-        // context is ready
-        // But we need to ensure GL context is created on the right thread if we were
-        // using a GLThread.
-        // Here we are running on main thread/service thread, so it should be fine for
-        // simple usage.
-        // However, if we want to re-init renderer:
+        mainHandler.removeCallbacks(standbyTimeout);
+        if (loadControl != null) {
+            loadControl.setStandby(false);
+        }
+        // Only the window surface is recreated. The EGL context keeps its textures, so the current
+        // slide is redrawn without decoding or uploading it again.
         if (glRenderer != null) {
-            glRenderer.release();
-            glRenderer = null;
+            glRenderer.setSurface(holder);
+            glRenderer.render();
+        } else if (state.isStopped()) {
+            // The standby expired, everything has to be loaded again
+            Log.d(TAG, "Restarting after stop");
+            state.start();
+            mainHandler.post(() -> {
+                try {
+                    loadNewMedia(context, Direction.CURRENT, 0, false);
+                } catch (IOException e) {
+                    Log.e(TAG, "Error reloading current media", e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Called when the wallpaper surface is destroyed. The player stays prepared with its codec paused and the
+     * GL context keeps its textures, so a new surface within {@code graceMs} shows the last frame right away.
+     * After that, everything is released with {@link #stop()}.
+     */
+    public void standby(long graceMs) {
+        if (graceMs <= 0) {
+            stop();
+            return;
+        }
+        Log.d(TAG, "Entering warm standby for " + graceMs + "ms");
+        pause();
+        if (loadControl != null) {
+            loadControl.setStandby(true);
+        }
+        if (glRenderer != null) {
+            glRenderer.detachSurface();
         }
+        // The image texture still holds the preloaded slide, the bitmap can go
+        preloadedUri = null;
+        preloadedBitmap = null;
+        mainHandler.removeCallbacks(standbyTimeout);
+        mainHandler.postDelayed(standbyTimeout, graceMs);
     }
 
     public void addNextMediaListener(NextMediaListener l) {
@@ -316,33 +789,116 @@ public class CurrentMediaHandler {
     public void setDimensions(int width, int height, Context context) {
         this.width = width;
         this.height = height;
-        updateAfter(context, 0);
+        if (glRenderer != null) {
+            // Only draws, if the size actually changed or the surface is new
+            glRenderer.setViewport(width, height);
+            glRenderer.render();
+        }
+    }
+
+    /**
+     * @return The number of buffer swaps in the last minute. Should stay near zero between two image slides.
+     */
+    public int getSwapsPerMinute() {
+        return glRenderer != null ? glRenderer.getSwapsPerMinute() : 0;
     }
 
     public void startTimer(Context context) {
-        runnable = true;
-        isPaused = false;
+        state.start();
+        state.resume();
         startPlayback();
     }
 
     public void pause() {
-        isPaused = true;
-        if (imageTimerRunnable != null) {
-            mainHandler.removeCallbacks(imageTimerRunnable);
-        }
-        if (exoPlayer != null && exoPlayer.isPlaying()) {
-            exoPlayer.pause();
-        }
+        state.pause();
+        runOnMainThread(() -> {
+            // A resume may have overtaken the post
+            if (!state.isPaused()) {
+                return;
+            }
+            // No wakeups while paused or invisible
+            slideScheduler.setVisible(false);
+            if (exoPlayer != null && exoPlayer.isPlaying()) {
+                exoPlayer.pause();
+            }
+        });
     }
 
     public void resume(Context context) {
-        isPaused = false;
-        startPlayback();
+        // The engine resumes twice after a warm standby, from onSurfaceCreated and onVisibilityChanged. Only the
+        // call that actually resumed catches up, the other would count the missed slides again.
+        boolean resumed = state.resume();
+        runOnMainThread(() -> {
+            if (state.isPaused()) {
+                return;
+            }
+            if (!resumed || !catchUp()) {
+                startPlayback();
+            }
+        });
+    }
+
+    /**
+     * The state changes right away on any thread, the player, the scheduler and the GL context are only used on the
+     * main thread. Runs the task directly if called there, otherwise posts it.
+     */
+    private void runOnMainThread(Runnable task) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            task.run();
+        } else {
+            mainHandler.post(task);
+        }
+    }
+
+    /**
+     * Jumps straight to the slide that is due after being invisible, without loading the ones in between. If the
+     * interval of the current slide did not end yet, it stays for the remaining time.
+     *
+     * @return {@code true} if a jump was started.
+     */
+    private boolean catchUp() {
+        if (state.isStopped() || state.isPaused() || state.isPlayingVideo() || currentMedia == null) {
+            return false;
+        }
+        if (navigationPosted.get()) {
+            // The posted navigation has not moved the last update yet, it schedules the next slide
+            slideScheduler.setVisible(true);
+            return true;
+        }
+        int count = manager.getImageUrisCount();
+        int elapsed = SlideScheduler.getElapsedIntervals(manager.getLastUpdate(), getImageDurationMs(),
+                System.currentTimeMillis());
+        if (elapsed <= 0 || count <= 1) {
+            return false;
+        }
+        // Whole rounds through the list end where they started
+        int steps = elapsed % count;
+        Log.d(TAG, "Catching up " + elapsed + " missed slides, " + steps + " steps ahead");
+        slideScheduler.cancel();
+        slideScheduler.setVisible(true);
+        if (steps == 0) {
+            // Only the grid moves on
+            manager.setLastUpdate(SlideScheduler.alignLastUpdate(manager.getLastUpdate(), getImageDurationMs(),
+                    System.currentTimeMillis()));
+            scheduleNextSlide();
+        } else {
+            requestNavigation(steps, false);
+        }
+        return true;
     }
 
     private void startPlayback() {
-        if (exoPlayer != null && !exoPlayer.isPlaying()) {
-            exoPlayer.play();
+        // A deadline that passed while paused fires now
+        slideScheduler.setVisible(true);
+        if (state.isPlayingVideo()) {
+            if (exoPlayer != null && !exoPlayer.isPlaying()) {
+                exoPlayer.play();
+            }
+            if (loopingClip && !slideScheduler.isScheduled()) {
+                scheduleNextSlide();
+            }
+        } else if (!state.isStopped() && currentMedia != null && !slideScheduler.isScheduled()) {
+            scheduleNextSlide();
         }
     }
 
@@ -350,17 +906,30 @@ public class CurrentMediaHandler {
         // Deprecated: Timer logic removed.
         // This method is kept if needed for interface compatibility but should trigger
         // next media.
-        if (runnable && !isPaused) {
+        if (!state.isStopped() && !state.isPaused()) {
             forceNextMedia(context);
         }
     }
 
     public void stop() {
         Log.d(TAG, "stop() called");
-        runnable = false;
-        if (imageTimerRunnable != null) {
-            mainHandler.removeCallbacks(imageTimerRunnable);
+        state.stop();
+        runOnMainThread(this::release);
+    }
+
+    private void release() {
+        // Restarted before the post ran
+        if (!state.isStopped()) {
+            return;
         }
+        mainHandler.removeCallbacks(standbyTimeout);
+        mainHandler.removeCallbacks(circuitRetry);
+        mainHandler.removeCallbacks(navigation);
+        navigationPosted.set(false);
+        pendingSteps.set(0);
+        pendingRequests.set(0);
+        cancelImageDecodes();
+        slideScheduler.cancel();
         if (exoPlayer != null) {
             try {
                 Log.d(TAG, "Stopping and releasing ExoPlayer");
@@ -368,16 +937,49 @@ public class CurrentMediaHandler {
                 exoPlayer.clearVideoSurface();
                 exoPlayer.release();
                 exoPlayer = null;
+                loadControl = null;
                 Log.d(TAG, "ExoPlayer released");
             } catch (Exception e) {
                 Log.e(TAG, "Error stopping ExoPlayer", e);
                 exoPlayer = null; // Force null even on error
+                loadControl = null;
             }
         }
+        // The SurfaceTexture has to go before the EGL context that owns its texture
+        releaseVideoSurface();
         if (glRenderer != null) {
             glRenderer.release();
             glRenderer = null;
         }
+        currentMedia = null;
+    }
+
+    private void ensureVideoSurface() {
+        if (videoSurfaceTexture != null && videoSurfaceRenderer == glRenderer) {
+            return;
+        }
+        // The texture belongs to the renderer's EGL context, a new renderer needs a new SurfaceTexture
+        releaseVideoSurface();
+        videoSurfaceTexture = new SurfaceTexture(glRenderer.getVideoTextureId());
+        framePacer = new VideoFramePacer(videoSurfaceTexture, () -> {
+            if (glRenderer != null) {
+                glRenderer.drawVideo();
+                onVideoFrameRendered();
+            }
+        }, manager.getVideoFpsCap());
+        videoSurfaceTexture.setOnFrameAvailableListener(framePacer, mainHandler);
+        videoSurface = new Surface(videoSurfaceTexture);
+        videoSurfaceRenderer = glRenderer;
+        exoPlayer.setVideoSurface(videoSurface);
+    }
+
+    private void releaseVideoSurface() {
+        if (framePacer != null) {
+            framePacer.release();
+            renderedVideoFrames += framePacer.getRenderedFrames();
+            droppedVideoFrames += framePacer.getDroppedFrames();
+            framePacer = null;
+        }
         if (videoSurface != null) {
             videoSurface.release();
             videoSurface = null;
@@ -386,20 +988,33 @@ public class CurrentMediaHandler {
             videoSurfaceTexture.release();
             videoSurfaceTexture = null;
         }
-        currentMedia = null;
-        isVideoPlaying = false;
+        videoSurfaceRenderer = null;
+    }
+
+    /**
+     * @return The number of video frames drawn since this handler was created.
+     */
+    public long getRenderedVideoFrames() {
+        return renderedVideoFrames + (framePacer != null ? framePacer.getRenderedFrames() : 0);
+    }
+
+    /**
+     * @return The number of decoded video frames skipped by the frame pacing since this handler was created.
+     */
+    public long getDroppedVideoFrames() {
+        return droppedVideoFrames + (framePacer != null ? framePacer.getDroppedFrames() : 0);
     }
 
     public boolean isStarted() {
-        return runnable;
+        return !state.isStopped();
     }
 
     public boolean isPaused() {
-        return isPaused;
+        return state.isPaused();
     }
 
     public boolean isVideoPlaying() {
-        return isVideoPlaying;
+        return state.isPlayingVideo();
     }
 
     /**
@@ -410,72 +1025,154 @@ public class CurrentMediaHandler {
      */
 
     public void forceNextMedia(Context context) {
-        synchronized (lock) {
-            if (runnable) {
-                // Cancel pending timer to prevent accumulation
-                if (imageTimerRunnable != null) {
-                    mainHandler.removeCallbacks(imageTimerRunnable);
-                }
-                // Use a Handler to avoid Thread issues if called from background
-                mainHandler.post(() -> {
-                    try {
-                        loadNewMedia(context, Direction.NEXT, true);
-                    } catch (IOException e) {
-                        Log.e(TAG, "Error loading next media", e);
-                    }
-                });
-            }
-        }
+        requestNavigation(1, true);
     }
 
     public void forcePreviousMedia(Context context) {
-        synchronized (lock) {
-            if (runnable) {
-                // Cancel pending timer to prevent accumulation
-                if (imageTimerRunnable != null) {
-                    mainHandler.removeCallbacks(imageTimerRunnable);
-                }
-                // Use a Handler to avoid Thread issues if called from background
-                mainHandler.post(() -> {
-                    try {
-                        loadNewMedia(context, Direction.PREVIOUS, true);
-                    } catch (IOException e) {
-                        Log.e(TAG, "Error loading previous media", e);
-                    }
-                });
+        requestNavigation(-1, true);
+    }
+
+    /**
+     * Adds the steps to the pending navigation. Requests that arrive before the main thread handled the last one,
+     * like quick swipes, are coalesced into a single load of the final target.
+     *
+     * @param forced {@code false} if the slide interval passed, the next interval is then aligned to the last one.
+     */
+    private void requestNavigation(int steps, boolean forced) {
+        if (state.isStopped()) {
+            return;
+        }
+        pendingSteps.addAndGet(steps);
+        pendingRequests.incrementAndGet();
+        if (forced) {
+            pendingForced.set(true);
+        }
+        // Use a Handler to avoid Thread issues if called from background
+        if (navigationPosted.compareAndSet(false, true)) {
+            mainHandler.post(navigation);
+        }
+    }
+
+    private void navigate() {
+        navigationPosted.set(false);
+        int steps = pendingSteps.getAndSet(0);
+        int requests = pendingRequests.getAndSet(0);
+        boolean forced = pendingForced.getAndSet(false);
+        if (requests == 0) {
+            return;
+        }
+        slideScheduler.cancel();
+        if (steps == 0) {
+            // The swipes cancelled each other out, the current slide stays
+            if (!state.isPaused()) {
+                startPlayback();
             }
+            return;
+        }
+        navigationStartNanos = System.nanoTime();
+        coalescedRequests = requests;
+        // Whatever is still decoding was passed by
+        cancelImageDecodes();
+        try {
+            loadNewMedia(context, steps > 0 ? Direction.NEXT : Direction.PREVIOUS, Math.abs(steps), forced);
+        } catch (IOException e) {
+            Log.e(TAG, "Error loading media", e);
         }
     }
 
+    /**
+     * Cancels the decode of the current slide and the preload of the next one. Decodes that are already running
+     * stop at their next read, results that are already posted are dropped by their generation.
+     */
+    private void cancelImageDecodes() {
+        imageGeneration.incrementAndGet();
+        cancelImageDecode();
+        if (preloadSignal != null) {
+            preloadSignal.cancel();
+            preloadSignal = null;
+        }
+        if (imagePreload != null) {
+            imagePreload.cancel(false);
+            imagePreload = null;
+        }
+    }
+
+    private void cancelImageDecode() {
+        if (decodeSignal != null) {
+            decodeSignal.cancel();
+            decodeSignal = null;
+        }
+        if (imageDecode != null) {
+            imageDecode.cancel(false);
+            imageDecode = null;
+        }
+    }
+
+    /**
+     * Logs the time from the last navigation request to the first frame of its target.
+     */
+    private void finishNavigationMeasurement() {
+        if (navigationStartNanos == 0) {
+            return;
+        }
+        long latencyMs = (System.nanoTime() - navigationStartNanos) / 1000000;
+        navigationStartNanos = 0;
+        Log.d(TAG, "Navigation latency: " + latencyMs + "ms for " + coalescedRequests + " coalesced requests");
+    }
+
     private enum Direction {
-        NEXT, PREVIOUS
+        NEXT, PREVIOUS, CURRENT
     }
 
-    private boolean loadNewMedia(Context context, Direction direction, boolean isForced) throws IOException {
-        synchronized (lock) {
-            Uri uri = getNextUri(context, direction, isForced);
-            boolean result = false;
-            if (uri != null) {
-                MediaInfo.MediaType type = MediaInfo.determineType(context, uri);
-                currentMedia = MediaLoader.loadMedia(uri, context, width, height, type);
+    private boolean loadNewMedia(Context context, Direction direction, int steps, boolean isForced)
+            throws IOException {
+        // A load posted before stop() must not start the player again
+        if (state.isStopped() || failureTracker.isCircuitOpen()) {
+            return false;
+        }
+        Uri uri = getNextUri(context, direction, steps, isForced);
+        // Quarantined items are skipped in the same direction, without opening them
+        Direction skipDirection = direction == Direction.PREVIOUS ? Direction.PREVIOUS : Direction.NEXT;
+        int count = manager.getImageUrisCount();
+        int skipped = 0;
+        while (uri != null && failureTracker.isQuarantined(uri)) {
+            if (++skipped >= count) {
+                Log.w(TAG, "All media is quarantined, trying again later");
+                slideScheduler.scheduleIn(getImageDurationMs());
+                return false;
+            }
+            uri = getNextUri(context, skipDirection, 1, isForced);
+        }
+        boolean result = false;
+        if (uri != null) {
+            MediaInfo.MediaType type;
+            try {
+                type = MediaInfo.determineType(context, uri);
+                currentMedia = MediaLoader.loadMedia(uri, context, type);
+            } catch (SecurityException e) {
+                // The permission for the uri was revoked
+                Log.e(TAG, "No access to " + uri, e);
+                Uri failed = uri;
+                mainHandler.post(() -> onMediaFailed(failed));
+                return false;
+            }
 
-                if (currentMedia != null) {
-                    boolean isVideo = currentMedia.isVideo();
-                    Log.d(TAG, "Loading " + (isVideo ? "video" : "image") + ": " + uri);
+            if (currentMedia != null) {
+                boolean isVideo = currentMedia.isVideo();
+                Log.d(TAG, "Loading " + (isVideo ? "video" : "image") + ": " + uri);
 
-                    notifyNextMediaListeners(currentMedia);
+                notifyNextMediaListeners(currentMedia);
 
-                    // Use unified prepareMedia for both types
-                    mainHandler.post(() -> prepareMedia(uri, isVideo));
+                // Use unified prepareMedia for both types
+                mainHandler.post(() -> prepareMedia(uri, isVideo));
 
-                    result = true;
-                }
+                result = true;
             }
-            return result;
         }
+        return result;
     }
 
-    private Uri getNextUri(Context context, Direction direction, boolean isForced) {
+    private Uri getNextUri(Context context, Direction direction, int steps, boolean isForced) {
         Uri result = null;
         Resources resources = context.getResources();
         SharedPreferencesManager.Ordering ordering = manager.getCurrentOrdering(resources);
@@ -488,19 +1185,18 @@ public class CurrentMediaHandler {
             }
 
             if (direction == Direction.PREVIOUS) {
-                currentMediaIndex--;
-                if (currentMediaIndex < 0) {
-                    currentMediaIndex = countUris - 1;
-                }
-            } else {
-                currentMediaIndex++;
-                if (currentMediaIndex >= countUris) {
-                    currentMediaIndex = 0;
-                }
+                currentMediaIndex = ((currentMediaIndex - steps) % countUris + countUris) % countUris;
+            } else if (direction == Direction.NEXT) {
+                currentMediaIndex = (currentMediaIndex + steps) % countUris;
             }
 
             manager.setCurrentIndex(currentMediaIndex);
-            manager.setLastUpdate(System.currentTimeMillis());
+            if (direction != Direction.CURRENT) {
+                // Advances of the slide timer stay on the interval grid, forced changes start a new one
+                long now = System.currentTimeMillis();
+                manager.setLastUpdate(isForced ? now
+                        : SlideScheduler.alignLastUpdate(manager.getLastUpdate(), getImageDurationMs(), now));
+            }
 
             result = manager.getImageUri(currentMediaIndex, ordering);
             currentIndex = currentMediaIndex;
@@ -509,6 +1205,19 @@ public class CurrentMediaHandler {
         return result;
     }
 
+    /**
+     * Returns the uri {@code offset} positions away from the current one, without changing the current index.
+     */
+    private Uri peekUri(Context context, int offset) {
+        int countUris = manager.getImageUrisCount();
+        if (countUris == 0) {
+            return null;
+        }
+        SharedPreferencesManager.Ordering ordering = manager.getCurrentOrdering(context.getResources());
+        int index = ((manager.getCurrentIndex() + offset) % countUris + countUris) % countUris;
+        return manager.getImageUri(index, ordering);
+    }
+
     private int getDelaySeconds(Context context) {
         int seconds = 5;
         try {
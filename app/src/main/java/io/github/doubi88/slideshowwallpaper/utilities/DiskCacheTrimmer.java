@@ -0,0 +1,77 @@
+package io.github.doubi88.slideshowwallpaper.utilities;
+
+import android.util.Log;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Keeps a cache directory below a byte limit. Files are deleted least recently used first, using their last
+ * modified time, which the caches update on every hit. Entries with an old key are never hit again, so they age
+ * out.
+ * <p>
+ * The directory is only listed after a tenth of the limit was written, not on every write.
+ */
+public class DiskCacheTrimmer {
+    private static final String TAG = "DiskCacheTrimmer";
+
+    private final File directory;
+    private final long maxBytes;
+    // Starts above the threshold, so the first write trims what earlier runs left behind
+    private long writtenSinceTrim = Long.MAX_VALUE / 2;
+
+    public DiskCacheTrimmer(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Marks a cache hit, so the file is kept longer than files that were not used.
+     */
+    public static void touch(File file) {
+        file.setLastModified(System.currentTimeMillis());
+    }
+
+    public synchronized void onWritten(File file) {
+        writtenSinceTrim += file.length();
+        if (writtenSinceTrim >= maxBytes / 10) {
+            writtenSinceTrim = 0;
+            trim();
+        }
+    }
+
+    private void trim() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        // Down to 90%, so the next writes do not trim again right away
+        long target = maxBytes / 10 * 9;
+        int deleted = 0;
+        for (File file : files) {
+            if (total <= target) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+                deleted++;
+            }
+        }
+        Log.d(TAG, "Deleted " + deleted + " files of " + directory + ", " + total + " bytes left");
+    }
+}
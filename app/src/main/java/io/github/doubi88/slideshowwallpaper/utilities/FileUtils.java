@@ -3,7 +3,13 @@ package io.github.doubi88.slideshowwallpaper.utilities;
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
+import android.provider.DocumentsContract;
+import android.provider.MediaStore;
 import android.provider.OpenableColumns;
+import android.util.Log;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 public class FileUtils {
 
@@ -33,4 +39,52 @@ public class FileUtils {
         }
         return result;
     }
+
+    /**
+     * Identifies the version of the file, for cache keys. It changes when the file is edited.
+     *
+     * @return The last modified time in milliseconds and the size, {@code "0|0"} if unknown.
+     */
+    public static String getVersion(Uri uri, Context context) {
+        long lastModified = 0;
+        long size = 0;
+        try (Cursor cursor = context.getContentResolver().query(uri, null, null, null, null)) {
+            if (cursor != null && cursor.moveToFirst()) {
+                // Documents report milliseconds, the MediaStore reports seconds
+                int index = cursor.getColumnIndex(DocumentsContract.Document.COLUMN_LAST_MODIFIED);
+                if (index >= 0 && !cursor.isNull(index)) {
+                    lastModified = cursor.getLong(index);
+                } else {
+                    index = cursor.getColumnIndex(MediaStore.MediaColumns.DATE_MODIFIED);
+                    if (index >= 0 && !cursor.isNull(index)) {
+                        lastModified = cursor.getLong(index) * 1000;
+                    }
+                }
+                index = cursor.getColumnIndex(OpenableColumns.SIZE);
+                if (index >= 0 && !cursor.isNull(index)) {
+                    size = cursor.getLong(index);
+                }
+            }
+        } catch (RuntimeException e) {
+            Log.w(FileUtils.class.getSimpleName(), "Could not query version of " + uri, e);
+        }
+        return lastModified + "|" + size;
+    }
+
+    /**
+     * @return The SHA-1 of the key as hex string, usable as file name.
+     */
+    public static String hash(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] bytes = digest.digest(key.getBytes());
+            StringBuilder result = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                result.append(String.format("%02x", b));
+            }
+            return result.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(key.hashCode());
+        }
+    }
 }
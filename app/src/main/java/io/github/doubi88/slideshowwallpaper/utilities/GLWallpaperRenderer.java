@@ -2,9 +2,11 @@ package io.github.doubi88.slideshowwallpaper.utilities;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.net.Uri;
 import android.opengl.GLES11Ext;
 import android.opengl.GLES20;
 import android.opengl.GLUtils;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.SurfaceHolder;
 
@@ -23,18 +25,42 @@ public class GLWallpaperRenderer {
 
     private static final int EGL_CONTEXT_CLIENT_VERSION = 0x3098;
     private static final int EGL_OPENGL_ES2_BIT = 4;
+    private static final int EGL_OPENGL_ES3_BIT_KHR = 0x40;
+    private static final int EGL_SURFACE_TYPE = 0x3033;
+    private static final int EGL_WINDOW_BIT = 0x0004;
+    private static final int EGL_PBUFFER_BIT = 0x0001;
 
     private EGL10 egl;
     private EGLDisplay eglDisplay;
     private EGLContext eglContext;
     private EGLSurface eglSurface;
+    private EGLSurface standbySurface;
     private EGLConfig eglConfig;
+    private int clientVersion;
 
     private int programImage;
     private int programVideo;
     private int textureIdImage = -1;
     private int textureIdVideo = -1;
 
+    private TextureUploader uploader;
+
+    private enum Content {
+        NONE, IMAGE, VIDEO
+    }
+
+    private static final long SWAP_WINDOW_MS = 60000;
+
+    private boolean glInitialized = false;
+    private Content content = Content.NONE;
+    private boolean dirty = false;
+    private int viewportWidth = -1;
+    private int viewportHeight = -1;
+    private long swapCount = 0;
+    private long swapWindowStart = SystemClock.elapsedRealtime();
+    private int swapsInWindow = 0;
+    private int swapsPerMinute = 0;
+
     private FloatBuffer vertexBuffer;
     private FloatBuffer textureBuffer;
 
@@ -87,7 +113,10 @@ public class GLWallpaperRenderer {
 
     public void setSurface(SurfaceHolder holder) {
         if (eglSurface != null) {
+            // Release the old surface first, otherwise the native window is still connected to it
+            egl.eglMakeCurrent(eglDisplay, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_CONTEXT);
             egl.eglDestroySurface(eglDisplay, eglSurface);
+            eglSurface = null;
         }
 
         if (eglContext == null) {
@@ -103,7 +132,37 @@ public class GLWallpaperRenderer {
             throw new RuntimeException("eglMakeCurrent failed");
         }
 
-        initGL();
+        // Programs and textures live in the context, so they survive a new window surface
+        if (!glInitialized) {
+            initGL();
+        }
+        if (viewportWidth > 0 && viewportHeight > 0) {
+            GLES20.glViewport(0, 0, viewportWidth, viewportHeight);
+        }
+        // A new window surface has no content yet
+        invalidate();
+    }
+
+    /**
+     * Destroys the window surface, but keeps the context with all textures alive and current on a 1x1 pbuffer.
+     * Video frames can still be latched while detached, they are drawn once {@link #setSurface} is called again.
+     */
+    public void detachSurface() {
+        if (eglSurface == null) {
+            return;
+        }
+        if (standbySurface == null) {
+            int[] surfaceAttribs = { EGL10.EGL_WIDTH, 1, EGL10.EGL_HEIGHT, 1, EGL10.EGL_NONE };
+            standbySurface = egl.eglCreatePbufferSurface(eglDisplay, eglConfig, surfaceAttribs);
+        }
+        if (standbySurface == null || standbySurface == EGL10.EGL_NO_SURFACE
+                || !egl.eglMakeCurrent(eglDisplay, standbySurface, standbySurface, eglContext)) {
+            Log.w(TAG, "Could not make standby surface current, error " + egl.eglGetError());
+            standbySurface = null;
+            egl.eglMakeCurrent(eglDisplay, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_CONTEXT);
+        }
+        egl.eglDestroySurface(eglDisplay, eglSurface);
+        eglSurface = null;
     }
 
     private void initEGL() {
@@ -119,24 +178,40 @@ public class GLWallpaperRenderer {
             throw new RuntimeException("eglInitialize failed");
         }
 
+        // ES 3 for fence syncs in the TextureUploader, ES 2 is enough for drawing
+        if (!createContext(EGL_OPENGL_ES3_BIT_KHR, 3) && !createContext(EGL_OPENGL_ES2_BIT, 2)) {
+            throw new RuntimeException("eglCreateContext failed, error " + egl.eglGetError());
+        }
+    }
+
+    private boolean createContext(int renderableType, int version) {
         int[] configSpec = {
                 EGL10.EGL_RED_SIZE, 8,
                 EGL10.EGL_GREEN_SIZE, 8,
                 EGL10.EGL_BLUE_SIZE, 8,
                 EGL10.EGL_ALPHA_SIZE, 8,
-                EGL10.EGL_RENDERABLE_TYPE, EGL_OPENGL_ES2_BIT,
+                EGL10.EGL_RENDERABLE_TYPE, renderableType,
+                EGL_SURFACE_TYPE, EGL_WINDOW_BIT | EGL_PBUFFER_BIT,
                 EGL10.EGL_NONE
         };
 
         EGLConfig[] configs = new EGLConfig[1];
         int[] numConfig = new int[1];
-        if (!egl.eglChooseConfig(eglDisplay, configSpec, configs, 1, numConfig)) {
-            throw new IllegalArgumentException("eglChooseConfig failed");
+        if (!egl.eglChooseConfig(eglDisplay, configSpec, configs, 1, numConfig) || numConfig[0] == 0) {
+            Log.d(TAG, "No EGL config for OpenGL ES " + version);
+            return false;
         }
-        eglConfig = configs[0];
 
-        int[] attrib_list = { EGL_CONTEXT_CLIENT_VERSION, 2, EGL10.EGL_NONE };
-        eglContext = egl.eglCreateContext(eglDisplay, eglConfig, EGL10.EGL_NO_CONTEXT, attrib_list);
+        int[] attrib_list = { EGL_CONTEXT_CLIENT_VERSION, version, EGL10.EGL_NONE };
+        EGLContext context = egl.eglCreateContext(eglDisplay, configs[0], EGL10.EGL_NO_CONTEXT, attrib_list);
+        if (context == null || context == EGL10.EGL_NO_CONTEXT) {
+            Log.d(TAG, "Could not create an OpenGL ES " + version + " context, error " + egl.eglGetError());
+            return false;
+        }
+        eglConfig = configs[0];
+        eglContext = context;
+        clientVersion = version;
+        return true;
     }
 
     private void initGL() {
@@ -161,6 +236,11 @@ public class GLWallpaperRenderer {
         GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
         GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
         GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+
+        if (uploader == null) {
+            uploader = new TextureUploader(egl, eglDisplay, eglConfig, eglContext, clientVersion);
+        }
+        glInitialized = true;
     }
 
     public int getVideoTextureId() {
@@ -174,67 +254,175 @@ public class GLWallpaperRenderer {
         GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
     }
 
-    public void drawVideo() {
-        if (eglSurface == null)
-            return;
-
-        GLES20.glUseProgram(programVideo);
+    /**
+     * Uploads the bitmap on the background upload context, without touching the texture currently on screen.
+     *
+     * @return {@code false} if there is no background context. The caller has to use {@link #uploadImage(Bitmap)} then.
+     */
+    public boolean uploadImageAsync(Uri uri, Bitmap bitmap, TextureUploader.UploadListener listener) {
+        if (uploader == null || !uploader.isAvailable()) {
+            return false;
+        }
+        uploader.upload(uri, bitmap, listener);
+        return true;
+    }
 
-        int positionHandle = GLES20.glGetAttribLocation(programVideo, "aPosition");
-        GLES20.glEnableVertexAttribArray(positionHandle);
-        GLES20.glVertexAttribPointer(positionHandle, 2, GLES20.GL_FLOAT, false, 0, vertexBuffer);
+    /**
+     * @return {@code true} if a background upload of the given uri is ready to be shown.
+     */
+    public boolean isImageReady(Uri uri) {
+        return uploader != null && uploader.isReady(uri);
+    }
 
-        int texCoordHandle = GLES20.glGetAttribLocation(programVideo, "aTexCoord");
-        GLES20.glEnableVertexAttribArray(texCoordHandle);
-        GLES20.glVertexAttribPointer(texCoordHandle, 2, GLES20.GL_FLOAT, false, 0, textureBuffer);
+    /**
+     * Makes the finished background upload the current image texture. Must be called on the render thread.
+     *
+     * @return {@code true} if a texture was swapped in.
+     */
+    public boolean swapUploadedImage() {
+        if (uploader == null) {
+            return false;
+        }
+        int textureId = uploader.swap(textureIdImage);
+        if (textureId == -1) {
+            return false;
+        }
+        textureIdImage = textureId;
+        return true;
+    }
 
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, textureIdVideo);
-        GLES20.glUniform1i(GLES20.glGetUniformLocation(programVideo, "uTexture"), 0);
+    /**
+     * Marks the current frame as out of date, e.g. after the surface was recreated or resized.
+     * Nothing is drawn until {@link #render()} is called.
+     */
+    public void invalidate() {
+        dirty = true;
+    }
 
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+    /**
+     * Shows a new video frame, that has already been latched into the video texture.
+     */
+    public void drawVideo() {
+        content = Content.VIDEO;
+        invalidate();
+        render();
+    }
 
-        GLES20.glDisableVertexAttribArray(positionHandle);
-        GLES20.glDisableVertexAttribArray(texCoordHandle);
+    /**
+     * Shows the current image texture.
+     */
+    public void drawImage() {
+        content = Content.IMAGE;
+        invalidate();
+        render();
+    }
 
+    /**
+     * Draws and swaps, but only if something changed since the last swap. A static image therefore costs
+     * no GPU work until the next slide or surface change.
+     *
+     * @return {@code true} if a frame was swapped.
+     */
+    public boolean render() {
+        if (!dirty || eglSurface == null || content == Content.NONE) {
+            return false;
+        }
+        if (content == Content.VIDEO) {
+            drawTexture(programVideo, GLES11Ext.GL_TEXTURE_EXTERNAL_OES, textureIdVideo);
+        } else {
+            drawTexture(programImage, GLES20.GL_TEXTURE_2D, textureIdImage);
+        }
         egl.eglSwapBuffers(eglDisplay, eglSurface);
+        dirty = false;
+        countSwap(SystemClock.elapsedRealtime());
+        return true;
     }
 
-    public void drawImage() {
-        if (eglSurface == null)
-            return;
+    public void setViewport(int width, int height) {
+        if (width != viewportWidth || height != viewportHeight) {
+            viewportWidth = width;
+            viewportHeight = height;
+            if (eglSurface != null) {
+                GLES20.glViewport(0, 0, width, height);
+            }
+            invalidate();
+        }
+    }
 
-        GLES20.glUseProgram(programImage);
+    private void drawTexture(int program, int target, int textureId) {
+        GLES20.glUseProgram(program);
 
-        int positionHandle = GLES20.glGetAttribLocation(programImage, "aPosition");
+        int positionHandle = GLES20.glGetAttribLocation(program, "aPosition");
         GLES20.glEnableVertexAttribArray(positionHandle);
         GLES20.glVertexAttribPointer(positionHandle, 2, GLES20.GL_FLOAT, false, 0, vertexBuffer);
 
-        int texCoordHandle = GLES20.glGetAttribLocation(programImage, "aTexCoord");
+        int texCoordHandle = GLES20.glGetAttribLocation(program, "aTexCoord");
         GLES20.glEnableVertexAttribArray(texCoordHandle);
         GLES20.glVertexAttribPointer(texCoordHandle, 2, GLES20.GL_FLOAT, false, 0, textureBuffer);
 
         GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureIdImage);
-        GLES20.glUniform1i(GLES20.glGetUniformLocation(programImage, "uTexture"), 0);
+        GLES20.glBindTexture(target, textureId);
+        GLES20.glUniform1i(GLES20.glGetUniformLocation(program, "uTexture"), 0);
 
         GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
 
         GLES20.glDisableVertexAttribArray(positionHandle);
         GLES20.glDisableVertexAttribArray(texCoordHandle);
+    }
 
-        egl.eglSwapBuffers(eglDisplay, eglSurface);
+    private void countSwap(long now) {
+        rollSwapWindow(now);
+        swapCount++;
+        swapsInWindow++;
+    }
+
+    private void rollSwapWindow(long now) {
+        long elapsed = now - swapWindowStart;
+        if (elapsed >= SWAP_WINDOW_MS) {
+            // If more than one window passed without a swap, the last full minute was idle
+            swapsPerMinute = elapsed < 2 * SWAP_WINDOW_MS ? swapsInWindow : 0;
+            Log.d(TAG, "Swaps in the last minute: " + swapsPerMinute);
+            swapsInWindow = 0;
+            swapWindowStart = now - (elapsed % SWAP_WINDOW_MS);
+        }
+    }
+
+    /**
+     * @return The total number of {@code eglSwapBuffers} calls of this renderer.
+     */
+    public long getSwapCount() {
+        return swapCount;
+    }
+
+    /**
+     * @return The number of swaps in the last completed minute. Should be close to zero while a static image is shown.
+     */
+    public int getSwapsPerMinute() {
+        rollSwapWindow(SystemClock.elapsedRealtime());
+        return swapsPerMinute;
     }
 
     public void release() {
+        if (uploader != null) {
+            uploader.release();
+            uploader = null;
+        }
+        if (eglDisplay != null) {
+            egl.eglMakeCurrent(eglDisplay, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_CONTEXT);
+        }
         if (eglSurface != null) {
             egl.eglDestroySurface(eglDisplay, eglSurface);
             eglSurface = null;
         }
+        if (standbySurface != null) {
+            egl.eglDestroySurface(eglDisplay, standbySurface);
+            standbySurface = null;
+        }
         if (eglContext != null) {
             egl.eglDestroyContext(eglDisplay, eglContext);
             eglContext = null;
         }
+        glInitialized = false;
         if (eglDisplay != null) {
             egl.eglTerminate(eglDisplay);
             eglDisplay = null;
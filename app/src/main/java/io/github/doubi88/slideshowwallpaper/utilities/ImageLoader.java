@@ -29,6 +29,7 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.ParcelFileDescriptor;
 import android.provider.OpenableColumns;
+import android.util.Size;
 import androidx.annotation.NonNull;
 import androidx.exifinterface.media.ExifInterface;
 import android.util.Log;
@@ -106,6 +107,121 @@ public class ImageLoader {
         }
     }
 
+    /**
+     * Loads a small preview, trying the cheap sources first: the thumbnail of the content provider (API 29+), the
+     * thumbnail embedded in the EXIF data, a scaled video frame, and only then a sampled decode of the original.
+     * The result covers {@code width} x {@code height}, unless the source is smaller. Does I/O, must not be called
+     * on the main thread.
+     *
+     * @param mimeType The MIME type, if known. {@code null} to query it.
+     * @return The thumbnail, {@code null} if the file could not be read.
+     */
+    public static Bitmap loadThumbnail(@NonNull Uri uri, @NonNull Context context, String mimeType, int width, int height) throws IOException {
+        if (mimeType == null) {
+            mimeType = context.getContentResolver().getType(uri);
+        }
+        boolean isVideo = mimeType != null && mimeType.startsWith("video/");
+
+        Bitmap result = loadProviderThumbnail(uri, context, width, height);
+        if (result == null && !isVideo) {
+            result = loadExifThumbnail(uri, context, width, height);
+        }
+        if (result == null) {
+            if (isVideo) {
+                result = loadScaledVideoFrame(uri, context, width, height);
+            } else {
+                result = loadImageBitmap(uri, context, width, height, true).getImage();
+            }
+        }
+        return result;
+    }
+
+    private static Bitmap loadProviderThumbnail(@NonNull Uri uri, @NonNull Context context, int width, int height) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+            return null;
+        }
+        try {
+            // Already rotated. Images without a stored thumbnail are decoded sampled by the platform.
+            return context.getContentResolver().loadThumbnail(uri, new Size(width, height), null);
+        } catch (IOException | RuntimeException e) {
+            Log.d(ImageLoader.class.getSimpleName(), "No provider thumbnail for " + uri + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static Bitmap loadExifThumbnail(@NonNull Uri uri, @NonNull Context context, int width, int height) {
+        try (InputStream in = context.getContentResolver().openInputStream(uri)) {
+            if (in == null) {
+                return null;
+            }
+            ExifInterface exif = new ExifInterface(in);
+            if (!exif.hasThumbnail()) {
+                return null;
+            }
+            Bitmap thumbnail = exif.getThumbnailBitmap();
+            if (thumbnail == null) {
+                return null;
+            }
+            int degrees = exif.getRotationDegrees();
+            boolean rotated = degrees == 90 || degrees == 270;
+            int thumbnailWidth = rotated ? thumbnail.getHeight() : thumbnail.getWidth();
+            int thumbnailHeight = rotated ? thumbnail.getWidth() : thumbnail.getHeight();
+            // Usually 160x120, blurry when stretched over a larger preview
+            if (thumbnailWidth * 2 < width || thumbnailHeight * 2 < height) {
+                thumbnail.recycle();
+                return null;
+            }
+            if (degrees != 0) {
+                Matrix matrix = new Matrix();
+                matrix.setRotate(degrees);
+                thumbnail = Bitmap.createBitmap(thumbnail, 0, 0, thumbnail.getWidth(), thumbnail.getHeight(), matrix, false);
+            }
+            return thumbnail;
+        } catch (IOException | RuntimeException e) {
+            Log.d(ImageLoader.class.getSimpleName(), "No EXIF thumbnail for " + uri + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static Bitmap loadScaledVideoFrame(@NonNull Uri uri, @NonNull Context context, int width, int height) {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(context, uri);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1) {
+                int videoWidth = parseInt(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH));
+                int videoHeight = parseInt(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT));
+                if (videoWidth > 0 && videoHeight > 0) {
+                    // The frame fits into the given size, scale it so it covers the preview
+                    float scale = Math.min(1f, Math.max((float) width / videoWidth, (float) height / videoHeight));
+                    int rotation = parseInt(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_ROTATION));
+                    int frameWidth = Math.max(1, Math.round(videoWidth * scale));
+                    int frameHeight = Math.max(1, Math.round(videoHeight * scale));
+                    boolean rotated = rotation == 90 || rotation == 270;
+                    return retriever.getScaledFrameAtTime(-1, MediaMetadataRetriever.OPTION_CLOSEST_SYNC,
+                            rotated ? frameHeight : frameWidth, rotated ? frameWidth : frameHeight);
+                }
+            }
+            return retriever.getFrameAtTime();
+        } catch (RuntimeException e) {
+            Log.e(ImageLoader.class.getSimpleName(), "Failed to load video thumbnail", e);
+            return null;
+        } finally {
+            try {
+                retriever.release();
+            } catch (IOException e) {
+                Log.e(ImageLoader.class.getSimpleName(), "Failed to release MediaMetadataRetriever", e);
+            }
+        }
+    }
+
+    private static int parseInt(String value) {
+        try {
+            return value != null ? Integer.parseInt(value) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
     private static ImageInfo loadVideoThumbnail(@NonNull Uri uri, @NonNull Context context) {
         MediaMetadataRetriever retriever = new MediaMetadataRetriever();
         try {
@@ -0,0 +1,121 @@
+package io.github.doubi88.slideshowwallpaper.utilities;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+
+/**
+ * Keeps broken media (deleted files, revoked permissions, undecodable content) out of the slideshow for a while.
+ * <p>
+ * Every failure of an item doubles the time it is quarantined, starting at one minute, up to one day. The counts
+ * are persisted, so a restart does not try all broken items again. A success clears the item.
+ * <p>
+ * If many items fail within a short time, the circuit breaker opens and the slideshow should stop advancing
+ * until it closes again. Its open time doubles with every trip in a row.
+ */
+public class MediaFailureTracker {
+    private static final String TAG = "MediaFailureTracker";
+    private static final String PREFERENCES_NAME = "media_failures";
+
+    private static final long BASE_BACKOFF_MS = 60 * 1000L;
+    private static final long MAX_BACKOFF_MS = 24 * 60 * 60 * 1000L;
+
+    private static final int CIRCUIT_FAILURE_THRESHOLD = 5;
+    private static final long CIRCUIT_WINDOW_MS = 30 * 1000L;
+    private static final long CIRCUIT_BASE_OPEN_MS = 5 * 60 * 1000L;
+    private static final long CIRCUIT_MAX_OPEN_MS = 60 * 60 * 1000L;
+
+    private final SharedPreferences preferences;
+    private final ArrayDeque<Long> recentFailures = new ArrayDeque<>();
+    private long circuitOpenUntil = 0;
+    private int circuitTrips = 0;
+
+    public MediaFailureTracker(Context context) {
+        preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    public synchronized void recordFailure(Uri uri) {
+        long now = System.currentTimeMillis();
+        int count = getFailureCount(uri) + 1;
+        preferences.edit().putString(uri.toString(), count + ";" + now).apply();
+        Log.w(TAG, uri + " failed " + count + " times, quarantined for " + (getBackoffMs(count) / 1000) + "s");
+
+        long uptime = SystemClock.elapsedRealtime();
+        recentFailures.addLast(uptime);
+        while (!recentFailures.isEmpty() && uptime - recentFailures.peekFirst() > CIRCUIT_WINDOW_MS) {
+            recentFailures.removeFirst();
+        }
+        if (recentFailures.size() >= CIRCUIT_FAILURE_THRESHOLD && !isCircuitOpen()) {
+            long openMs = Math.min(CIRCUIT_BASE_OPEN_MS << Math.min(circuitTrips, 10), CIRCUIT_MAX_OPEN_MS);
+            circuitTrips++;
+            circuitOpenUntil = uptime + openMs;
+            recentFailures.clear();
+            Log.w(TAG, "Too many failures, pausing the slideshow for " + (openMs / 1000) + "s");
+        }
+    }
+
+    public synchronized void recordSuccess(Uri uri) {
+        circuitTrips = 0;
+        if (preferences.contains(uri.toString())) {
+            preferences.edit().remove(uri.toString()).apply();
+        }
+    }
+
+    /**
+     * Drops the failures of an item that was removed from the playlist, without touching the circuit breaker.
+     */
+    public synchronized void forget(Uri uri) {
+        if (preferences.contains(uri.toString())) {
+            preferences.edit().remove(uri.toString()).apply();
+        }
+    }
+
+    /**
+     * @return {@code true} if the item failed recently and should be skipped.
+     */
+    public synchronized boolean isQuarantined(Uri uri) {
+        String value = preferences.getString(uri.toString(), null);
+        if (value == null) {
+            return false;
+        }
+        String[] parts = value.split(";");
+        try {
+            int count = Integer.parseInt(parts[0]);
+            long lastFailure = Long.parseLong(parts[1]);
+            return System.currentTimeMillis() - lastFailure < getBackoffMs(count);
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    public synchronized boolean isCircuitOpen() {
+        return SystemClock.elapsedRealtime() < circuitOpenUntil;
+    }
+
+    /**
+     * @return Milliseconds until the circuit breaker closes, {@code 0} if it is closed.
+     */
+    public synchronized long getCircuitRemainingMs() {
+        return Math.max(0, circuitOpenUntil - SystemClock.elapsedRealtime());
+    }
+
+    private int getFailureCount(Uri uri) {
+        String value = preferences.getString(uri.toString(), null);
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(value.split(";")[0]);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static long getBackoffMs(int count) {
+        return Math.min(BASE_BACKOFF_MS << Math.min(count - 1, 20), MAX_BACKOFF_MS);
+    }
+}
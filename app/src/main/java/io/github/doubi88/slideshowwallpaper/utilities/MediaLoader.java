@@ -21,50 +21,46 @@ package io.github.doubi88.slideshowwallpaper.utilities;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.media.MediaMetadataRetriever;
 import android.net.Uri;
+import android.os.CancellationSignal;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 
 public class MediaLoader {
     private static final String TAG = "MediaLoader";
 
-    public static MediaInfo loadMedia(Uri uri, Context context, int targetWidth, int targetHeight,
-            MediaInfo.MediaType type) throws IOException {
+    /**
+     * Only reads the file name. Images are decoded off the main thread by the CurrentMediaHandler
+     * (see {@link #decodeBitmap}), video posters come from the {@link PosterCache}.
+     */
+    public static MediaInfo loadMedia(Uri uri, Context context, MediaInfo.MediaType type) {
         String fileName = FileUtils.getFileName(uri, context);
         Bitmap bitmap = null;
 
-        if (type == MediaInfo.MediaType.IMAGE) {
-            bitmap = loadBitmap(uri, context, targetWidth, targetHeight);
-        } else if (type == MediaInfo.MediaType.VIDEO) {
-            // For videos, we'll get a thumbnail
-            MediaMetadataRetriever retriever = new MediaMetadataRetriever();
-            try {
-                retriever.setDataSource(context, uri);
-                bitmap = retriever.getFrameAtTime();
-                if (bitmap != null) {
-                    bitmap = Bitmap.createScaledBitmap(bitmap, targetWidth, targetHeight, true);
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-            } finally {
-                try {
-                    retriever.release();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
         return new MediaInfo(uri, fileName, 0, bitmap, type);
     }
 
-    private static Bitmap loadBitmap(Uri uri, Context context, int targetWidth, int targetHeight) throws IOException {
+    /**
+     * Decodes the image with the largest power of two sample size that keeps it at least as large as the target,
+     * then scales it to exactly the target size.
+     */
+    public static Bitmap decodeBitmap(Uri uri, Context context, int targetWidth, int targetHeight) throws IOException {
+        return decodeBitmap(uri, context, targetWidth, targetHeight, null);
+    }
+
+    /**
+     * Like {@link #decodeBitmap(Uri, Context, int, int)}, but stops reading when the signal is cancelled.
+     *
+     * @throws InterruptedIOException If the decode was cancelled.
+     */
+    public static Bitmap decodeBitmap(Uri uri, Context context, int targetWidth, int targetHeight,
+            CancellationSignal signal) throws IOException {
         Bitmap result = null;
         InputStream is = null;
         try {
-            is = context.getContentResolver().openInputStream(uri);
+            is = openInputStream(uri, context, signal);
             if (is != null) {
                 BitmapFactory.Options options = new BitmapFactory.Options();
                 options.inJustDecodeBounds = true;
@@ -74,9 +70,16 @@ public class MediaLoader {
                 options.inSampleSize = calculateInSampleSize(options, targetWidth, targetHeight);
                 options.inJustDecodeBounds = false;
 
-                is = context.getContentResolver().openInputStream(uri);
+                is = openInputStream(uri, context, signal);
                 if (is != null) {
                     Bitmap bitmap = BitmapFactory.decodeStream(is, null, options);
+                    if (signal != null && signal.isCanceled()) {
+                        // BitmapFactory swallows the exception of the stream and returns a partial or no bitmap
+                        if (bitmap != null) {
+                            bitmap.recycle();
+                        }
+                        throw new InterruptedIOException("Decode cancelled");
+                    }
                     if (bitmap != null) {
                         result = Bitmap.createScaledBitmap(bitmap, targetWidth, targetHeight, true);
                         if (result != bitmap) {
@@ -93,6 +96,15 @@ public class MediaLoader {
         return result;
     }
 
+    private static InputStream openInputStream(Uri uri, Context context, CancellationSignal signal)
+            throws IOException {
+        if (signal != null && signal.isCanceled()) {
+            throw new InterruptedIOException("Decode cancelled");
+        }
+        InputStream is = context.getContentResolver().openInputStream(uri);
+        return is != null && signal != null ? new CancellableInputStream(is, signal) : is;
+    }
+
     private static int calculateInSampleSize(BitmapFactory.Options options, int reqWidth, int reqHeight) {
         final int height = options.outHeight;
         final int width = options.outWidth;
@@ -0,0 +1,279 @@
+package io.github.doubi88.slideshowwallpaper.utilities;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.DocumentsContract;
+import android.provider.MediaStore;
+import android.provider.OpenableColumns;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What the image list needs to know about a file, without opening it. Loaded in bulk in the background,
+ * so binding a list item does not need a call into the content provider.
+ * <p>
+ * Fields that the provider does not report are {@code 0} or {@code null}. Documents, for example, have no
+ * orientation or dimensions.
+ */
+public class MediaMetadata {
+    private static final String TAG = "MediaMetadata";
+    private static final int BATCH_SIZE = 500;
+
+    private final Uri uri;
+    private final String name;
+    private final long size;
+    private final String mimeType;
+    private final long lastModified;
+    private final int orientation;
+    private final int width;
+    private final int height;
+
+    public MediaMetadata(Uri uri, String name, long size, String mimeType, long lastModified, int orientation,
+            int width, int height) {
+        this.uri = uri;
+        this.name = name;
+        this.size = size;
+        this.mimeType = mimeType;
+        this.lastModified = lastModified;
+        this.orientation = orientation;
+        this.width = width;
+        this.height = height;
+    }
+
+    public Uri getUri() {
+        return uri;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public boolean isVideo() {
+        return mimeType != null && mimeType.startsWith("video/");
+    }
+
+    /**
+     * @return Milliseconds since the epoch, {@code 0} if unknown.
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public int getOrientation() {
+        return orientation;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return The same version string as {@link FileUtils#getVersion(Uri, Context)}, for cache keys.
+     */
+    public String getVersion() {
+        return lastModified + "|" + size;
+    }
+
+    /**
+     * Loads the metadata of all uris. Items of the MediaStore are queried with one query per collection and batch,
+     * other uris one by one. Does I/O, must not be called on the main thread.
+     *
+     * @return The metadata by uri, in the order of the list. Uris that could not be queried are missing.
+     */
+    public static Map<Uri, MediaMetadata> loadAll(Context context, List<Uri> uris) {
+        return loadAll(context, uris, null);
+    }
+
+    /**
+     * Like {@link #loadAll(Context, List)}, but also reports the uris that no longer exist.
+     *
+     * @param missing Receives the uris the provider reported as deleted or inaccessible. Uris of a failed batch
+     *                query are neither loaded nor missing, so a single failure does not drop a whole collection.
+     *                Items a batch query did not return are queried one by one before they count as missing.
+     */
+    public static Map<Uri, MediaMetadata> loadAll(Context context, List<Uri> uris, Collection<Uri> missing) {
+        long start = System.currentTimeMillis();
+        ContentResolver resolver = context.getContentResolver();
+        Map<Uri, MediaMetadata> result = new HashMap<>(uris.size());
+
+        Map<Uri, List<Long>> mediaStoreIds = new LinkedHashMap<>();
+        for (Uri uri : uris) {
+            Uri collection = getMediaStoreCollection(uri);
+            if (collection != null) {
+                List<Long> ids = mediaStoreIds.get(collection);
+                if (ids == null) {
+                    ids = new ArrayList<>();
+                    mediaStoreIds.put(collection, ids);
+                }
+                ids.add(ContentUris.parseId(uri));
+            } else {
+                MediaMetadata metadata = loadSingle(resolver, uri, missing);
+                if (metadata != null) {
+                    result.put(uri, metadata);
+                }
+            }
+        }
+        for (Map.Entry<Uri, List<Long>> entry : mediaStoreIds.entrySet()) {
+            List<Long> ids = entry.getValue();
+            for (int from = 0; from < ids.size(); from += BATCH_SIZE) {
+                loadMediaStoreBatch(resolver, entry.getKey(), ids.subList(from, Math.min(from + BATCH_SIZE,
+                        ids.size())), result, missing);
+            }
+        }
+
+        Map<Uri, MediaMetadata> ordered = new LinkedHashMap<>(uris.size());
+        for (Uri uri : uris) {
+            MediaMetadata metadata = result.get(uri);
+            if (metadata != null) {
+                ordered.put(uri, metadata);
+            }
+        }
+        Log.d(TAG, "Loaded metadata of " + ordered.size() + "/" + uris.size() + " items in "
+                + (System.currentTimeMillis() - start) + "ms");
+        return ordered;
+    }
+
+    /**
+     * @return The collection of a MediaStore item uri like {@code content://media/external/images/media/12},
+     * {@code null} for other uris.
+     */
+    private static Uri getMediaStoreCollection(Uri uri) {
+        if (!MediaStore.AUTHORITY.equals(uri.getAuthority())) {
+            return null;
+        }
+        List<String> segments = uri.getPathSegments();
+        if (uri.getQuery() != null || segments.size() != 4 || !TextUtils.isDigitsOnly(segments.get(3))) {
+            return null;
+        }
+        return new Uri.Builder().scheme(uri.getScheme()).authority(uri.getAuthority())
+                .appendPath(segments.get(0)).appendPath(segments.get(1)).appendPath(segments.get(2)).build();
+    }
+
+    private static void loadMediaStoreBatch(ContentResolver resolver, Uri collection, List<Long> ids,
+            Map<Uri, MediaMetadata> result, Collection<Uri> missing) {
+        String[] projection = {
+                MediaStore.MediaColumns._ID,
+                MediaStore.MediaColumns.DISPLAY_NAME,
+                MediaStore.MediaColumns.SIZE,
+                MediaStore.MediaColumns.MIME_TYPE,
+                MediaStore.MediaColumns.DATE_MODIFIED,
+                MediaStore.MediaColumns.WIDTH,
+                MediaStore.MediaColumns.HEIGHT,
+                // Only images have an orientation before API 29
+                "images".equals(collection.getPathSegments().get(1))
+                        ? MediaStore.Images.ImageColumns.ORIENTATION : MediaStore.MediaColumns._ID
+        };
+        StringBuilder selection = new StringBuilder(MediaStore.MediaColumns._ID + " IN (");
+        String[] selectionArgs = new String[ids.size()];
+        for (int i = 0; i < ids.size(); i++) {
+            selection.append(i == 0 ? "?" : ",?");
+            selectionArgs[i] = String.valueOf(ids.get(i));
+        }
+        selection.append(')');
+
+        try (Cursor cursor = resolver.query(collection, projection, selection.toString(), selectionArgs, null)) {
+            if (cursor == null) {
+                return;
+            }
+            boolean hasOrientation = !MediaStore.MediaColumns._ID.equals(projection[7]);
+            Set<Long> found = new HashSet<>(ids.size());
+            while (cursor.moveToNext()) {
+                Uri uri = ContentUris.withAppendedId(collection, cursor.getLong(0));
+                found.add(cursor.getLong(0));
+                result.put(uri, new MediaMetadata(uri, cursor.getString(1), cursor.getLong(2), cursor.getString(3),
+                        cursor.getLong(4) * 1000, hasOrientation ? cursor.getInt(7) : 0, cursor.getInt(5),
+                        cursor.getInt(6)));
+            }
+            if (found.size() < ids.size()) {
+                for (Long id : ids) {
+                    if (!found.contains(id)) {
+                        // With partial media access, the collection only lists the items the user granted again.
+                        // An item shared through a uri grant is still readable, only a failed single query
+                        // means it is gone.
+                        Uri uri = ContentUris.withAppendedId(collection, id);
+                        MediaMetadata metadata = loadSingle(resolver, uri, missing);
+                        if (metadata != null) {
+                            result.put(uri, metadata);
+                        }
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Could not query " + ids.size() + " items of " + collection, e);
+        }
+    }
+
+    private static MediaMetadata loadSingle(ContentResolver resolver, Uri uri, Collection<Uri> missing) {
+        try (Cursor cursor = resolver.query(uri, null, null, null, null)) {
+            if (cursor == null) {
+                // No provider to ask, like for file uris
+                return null;
+            }
+            if (!cursor.moveToFirst()) {
+                if (missing != null) {
+                    missing.add(uri);
+                }
+                return null;
+            }
+            String name = getString(cursor, OpenableColumns.DISPLAY_NAME);
+            long size = getLong(cursor, OpenableColumns.SIZE);
+            String mimeType = getString(cursor, DocumentsContract.Document.COLUMN_MIME_TYPE);
+            if (mimeType == null) {
+                mimeType = resolver.getType(uri);
+            }
+            // Documents report milliseconds, the MediaStore reports seconds
+            long lastModified = getLong(cursor, DocumentsContract.Document.COLUMN_LAST_MODIFIED);
+            if (lastModified == 0) {
+                lastModified = getLong(cursor, MediaStore.MediaColumns.DATE_MODIFIED) * 1000;
+            }
+            return new MediaMetadata(uri, name, size, mimeType, lastModified,
+                    (int) getLong(cursor, MediaStore.Images.ImageColumns.ORIENTATION),
+                    (int) getLong(cursor, MediaStore.MediaColumns.WIDTH),
+                    (int) getLong(cursor, MediaStore.MediaColumns.HEIGHT));
+        } catch (SecurityException | IllegalArgumentException e) {
+            // The permission was revoked or the document was deleted
+            Log.w(TAG, "Could not query " + uri, e);
+            if (missing != null) {
+                missing.add(uri);
+            }
+            return null;
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Could not query " + uri, e);
+            return null;
+        }
+    }
+
+    private static String getString(Cursor cursor, String column) {
+        int index = cursor.getColumnIndex(column);
+        return index >= 0 && !cursor.isNull(index) ? cursor.getString(index) : null;
+    }
+
+    private static long getLong(Cursor cursor, String column) {
+        int index = cursor.getColumnIndex(column);
+        return index >= 0 && !cursor.isNull(index) ? cursor.getLong(index) : 0;
+    }
+}
@@ -0,0 +1,152 @@
+package io.github.doubi88.slideshowwallpaper.utilities;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The playback state of the {@link CurrentMediaHandler}. All transitions are atomic, so the state can be changed
+ * from the main thread, the decode executor and player callbacks without a lock.
+ * <p>
+ * While paused, the content state (loading, image or video) is still tracked, so {@link #resume()} returns to
+ * whatever is on screen by then. Once stopped, only {@link #start()} leaves the stopped state.
+ */
+public class PlaybackStateMachine {
+    public enum State {
+        IDLE, LOADING, SHOWING_IMAGE, PLAYING_VIDEO, PAUSED, STOPPED
+    }
+
+    /**
+     * Immutable, so state and paused content change together.
+     */
+    private static final class Snapshot {
+        final State state;
+        final State pausedContent; // Only set while PAUSED
+
+        Snapshot(State state, State pausedContent) {
+            this.state = state;
+            this.pausedContent = pausedContent;
+        }
+    }
+
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(new Snapshot(State.IDLE, null));
+
+    public State getState() {
+        return snapshot.get().state;
+    }
+
+    /**
+     * @return What is on screen: {@link State#IDLE}, {@link State#LOADING}, {@link State#SHOWING_IMAGE},
+     * {@link State#PLAYING_VIDEO}, or {@link State#STOPPED}. Never {@link State#PAUSED}.
+     */
+    public State getContent() {
+        Snapshot current = snapshot.get();
+        return current.state == State.PAUSED ? current.pausedContent : current.state;
+    }
+
+    public boolean isStopped() {
+        return getState() == State.STOPPED;
+    }
+
+    public boolean isPaused() {
+        return getState() == State.PAUSED;
+    }
+
+    public boolean isPlayingVideo() {
+        return getContent() == State.PLAYING_VIDEO;
+    }
+
+    /**
+     * @return {@code false} if stopped, the caller must not load anything then.
+     */
+    public boolean startLoading() {
+        return setContent(State.LOADING);
+    }
+
+    /**
+     * @return {@code false} if stopped.
+     */
+    public boolean showImage() {
+        return setContent(State.SHOWING_IMAGE);
+    }
+
+    /**
+     * @return {@code false} if stopped.
+     */
+    public boolean playVideo() {
+        return setContent(State.PLAYING_VIDEO);
+    }
+
+    private boolean setContent(State content) {
+        while (true) {
+            Snapshot current = snapshot.get();
+            Snapshot next;
+            if (current.state == State.STOPPED) {
+                return false;
+            } else if (current.state == State.PAUSED) {
+                next = new Snapshot(State.PAUSED, content);
+            } else {
+                next = new Snapshot(content, null);
+            }
+            if (snapshot.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if the state changed to paused.
+     */
+    public boolean pause() {
+        while (true) {
+            Snapshot current = snapshot.get();
+            if (current.state == State.STOPPED || current.state == State.PAUSED) {
+                return false;
+            }
+            if (snapshot.compareAndSet(current, new Snapshot(State.PAUSED, current.state))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if the state was paused and returned to its content state.
+     */
+    public boolean resume() {
+        while (true) {
+            Snapshot current = snapshot.get();
+            if (current.state != State.PAUSED) {
+                return false;
+            }
+            if (snapshot.compareAndSet(current, new Snapshot(current.pausedContent, null))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if the state changed to stopped.
+     */
+    public boolean stop() {
+        return snapshot.getAndSet(new Snapshot(State.STOPPED, null)).state != State.STOPPED;
+    }
+
+    /**
+     * Leaves the stopped state, or resumes if paused.
+     *
+     * @return {@code true} if the state was stopped and is idle now.
+     */
+    public boolean start() {
+        while (true) {
+            Snapshot current = snapshot.get();
+            if (current.state == State.PAUSED) {
+                resume();
+                return false;
+            }
+            if (current.state != State.STOPPED) {
+                return false;
+            }
+            if (snapshot.compareAndSet(current, new Snapshot(State.IDLE, null))) {
+                return true;
+            }
+        }
+    }
+}
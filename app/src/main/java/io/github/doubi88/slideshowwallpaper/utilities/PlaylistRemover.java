@@ -0,0 +1,36 @@
+package io.github.doubi88.slideshowwallpaper.utilities;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import io.github.doubi88.slideshowwallpaper.preferences.SharedPreferencesManager;
+
+/**
+ * Removes items from the playlist together with what was stored for them. Every removal has to go through here,
+ * {@link SharedPreferencesManager#removeUri(Uri)} drops the mapping to the display sized copy, after which the copy
+ * cannot be found anymore.
+ */
+public class PlaylistRemover {
+    private static final String TAG = "PlaylistRemover";
+
+    private PlaylistRemover() {
+    }
+
+    /**
+     * Deletes the display sized copy of the item, if there is one, removes the item from the playlist and forgets
+     * its failures. Does I/O.
+     */
+    public static void remove(Context context, SharedPreferencesManager manager, Uri uri) {
+        Uri playbackUri = manager.getPlaybackUri(uri);
+        if (!playbackUri.equals(uri)) {
+            try {
+                context.getContentResolver().delete(playbackUri, null, null);
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Failed to delete display copy " + playbackUri, e);
+            }
+        }
+        manager.removeUri(uri);
+        new MediaFailureTracker(context).forget(uri);
+    }
+}
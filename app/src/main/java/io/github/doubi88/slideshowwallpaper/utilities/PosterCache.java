@@ -0,0 +1,122 @@
+package io.github.doubi88.slideshowwallpaper.utilities;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Poster frames of videos, cached on disk. A poster is extracted once per video and size, so showing a video
+ * slide never needs a {@link MediaMetadataRetriever}. The cache key contains the last modified time and size, so
+ * an edited video gets a new poster. Posters of old keys are trimmed, the directory stays below
+ * {@link #MAX_BYTES}.
+ * <p>
+ * All methods do I/O and must not be called on the main thread.
+ */
+public class PosterCache {
+    private static final String TAG = "PosterCache";
+    private static final String DIRECTORY = "posters";
+    private static final int JPEG_QUALITY = 85;
+    private static final long MAX_BYTES = 32L * 1024 * 1024;
+
+    private static DiskCacheTrimmer trimmer;
+
+    private PosterCache() {
+    }
+
+    private static synchronized DiskCacheTrimmer getTrimmer(Context context) {
+        if (trimmer == null) {
+            trimmer = new DiskCacheTrimmer(new File(context.getCacheDir(), DIRECTORY), MAX_BYTES);
+        }
+        return trimmer;
+    }
+
+    /**
+     * @return The cached poster, or a newly extracted one. {@code null} if no frame could be extracted.
+     */
+    public static Bitmap getPoster(Context context, Uri uri, int width, int height) {
+        File file = getFile(context, uri, width, height);
+        if (file.exists()) {
+            Bitmap cached = BitmapFactory.decodeFile(file.getAbsolutePath());
+            if (cached != null) {
+                DiskCacheTrimmer.touch(file);
+                return cached;
+            }
+            Log.w(TAG, "Deleting unreadable poster " + file);
+            file.delete();
+        }
+
+        long start = System.currentTimeMillis();
+        Bitmap poster = extractFrame(context, uri, width, height);
+        if (poster != null) {
+            if (save(poster, file)) {
+                getTrimmer(context).onWritten(file);
+            }
+            Log.d(TAG, "Extracted poster of " + uri + " in " + (System.currentTimeMillis() - start) + "ms");
+        }
+        return poster;
+    }
+
+    private static Bitmap extractFrame(Context context, Uri uri, int width, int height) {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(context, uri);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1) {
+                // Decodes at the target size, instead of decoding the full frame and scaling it afterwards
+                return retriever.getScaledFrameAtTime(0, MediaMetadataRetriever.OPTION_CLOSEST_SYNC, width, height);
+            }
+            Bitmap frame = retriever.getFrameAtTime();
+            if (frame != null) {
+                Bitmap scaled = Bitmap.createScaledBitmap(frame, width, height, true);
+                if (scaled != frame) {
+                    frame.recycle();
+                }
+                return scaled;
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Could not extract frame of " + uri, e);
+        } finally {
+            try {
+                retriever.release();
+            } catch (IOException e) {
+                Log.w(TAG, "Error releasing retriever", e);
+            }
+        }
+        return null;
+    }
+
+    private static boolean save(Bitmap poster, File file) {
+        File directory = file.getParentFile();
+        if (directory != null && !directory.exists() && !directory.mkdirs()) {
+            Log.w(TAG, "Could not create " + directory);
+            return false;
+        }
+        // Written to a temporary file first, so a concurrent reader never sees half a poster
+        File temp = new File(file.getPath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(temp)) {
+            poster.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write poster " + file, e);
+            temp.delete();
+            return false;
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            return false;
+        }
+        return true;
+    }
+
+    private static File getFile(Context context, Uri uri, int width, int height) {
+        String key = uri + "|" + FileUtils.getVersion(uri, context) + "|" + width + "x" + height;
+        return new File(new File(context.getCacheDir(), DIRECTORY), FileUtils.hash(key) + ".jpg");
+    }
+}
@@ -1,28 +0,0 @@
-/*
- * Slideshow Wallpaper: An Android live wallpaper displaying custom images.
- * Copyright (C) 2022  Doubi88 <tobis_mail@yahoo.de>
- *
- * Slideshow Wallpaper is free software: you can redistribute it and/or modify
- * it under the terms of the GNU General Public License as published by
- * the Free Software Foundation, either version 3 of the License, or
- * (at your option) any later version.
- *
- * Slideshow Wallpaper is distributed in the hope that it will be useful,
- * but WITHOUT ANY WARRANTY; without even the implied warranty of
- * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
- * GNU General Public License for more details.
- *
- * You should have received a copy of the GNU General Public License
- * along with this program.  If not, see <https://www.gnu.org/licenses/>.
- *
- */
-package io.github.doubi88.slideshowwallpaper.utilities;
-
-import android.os.AsyncTask;
-
-public interface ProgressListener<Params, Progress, Result> {
-
-    public void onProgressChanged(AsyncTask<Params, Progress, Result> task, Progress current, Progress max);
-    public void onTaskFinished(AsyncTask<Params, Progress, Result> task, Result result);
-    public void onTaskCancelled(AsyncTask<Params, Progress, Result> task, Result result);
-}
@@ -0,0 +1,102 @@
+package io.github.doubi88.slideshowwallpaper.utilities;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+/**
+ * Schedules slide advances on a {@link Handler}, aligned to the interval boundaries that start at the last update.
+ * The time it took to decode and show a slide does not add up over many slides.
+ * <p>
+ * The wall clock is only read to convert the persisted last update, deadlines are kept in uptime. They are
+ * rounded up to a grid, so the looper wakes up for the slide together with other work on the same grid. While
+ * invisible, nothing is posted at all; a deadline that passed in the meantime fires as soon as it is visible again.
+ * <p>
+ * Not thread safe, must be used on the handler's thread.
+ */
+public class SlideScheduler {
+    private static final long COALESCE_MS = 250;
+
+    private final Handler handler;
+    private final Runnable onSlideDue;
+    private final Runnable tick = this::fire;
+    private long deadlineUptime = -1;
+    private boolean visible = true;
+
+    public SlideScheduler(Handler handler, Runnable onSlideDue) {
+        this.handler = handler;
+        this.onSlideDue = onSlideDue;
+    }
+
+    /**
+     * Schedules the advance at the end of the interval, that started at the last update.
+     *
+     * @param lastUpdate Wall clock time of the last update in milliseconds, {@code 0} if unknown.
+     */
+    public void schedule(long lastUpdate, long intervalMs) {
+        long elapsedMs = lastUpdate > 0 ? System.currentTimeMillis() - lastUpdate : 0;
+        if (elapsedMs < 0) {
+            // The clock was set back
+            elapsedMs = 0;
+        }
+        scheduleIn(Math.max(0, intervalMs - elapsedMs));
+    }
+
+    public void scheduleIn(long delayMs) {
+        deadlineUptime = SystemClock.uptimeMillis() + Math.max(0, delayMs);
+        post();
+    }
+
+    public void cancel() {
+        deadlineUptime = -1;
+        handler.removeCallbacks(tick);
+    }
+
+    public boolean isScheduled() {
+        return deadlineUptime >= 0;
+    }
+
+    /**
+     * Keeps the deadline, but does not wake up for it while invisible.
+     */
+    public void setVisible(boolean visible) {
+        this.visible = visible;
+        post();
+    }
+
+    /**
+     * Aligns the last update to the interval boundaries, so advances of the scheduler stay on the grid, that
+     * started with the last manual change.
+     *
+     * @return The start of the current interval, or {@code now} if there was no last update.
+     */
+    public static long alignLastUpdate(long lastUpdate, long intervalMs, long now) {
+        if (lastUpdate <= 0 || intervalMs <= 0 || now < lastUpdate) {
+            return now;
+        }
+        return now - (now - lastUpdate) % intervalMs;
+    }
+
+    /**
+     * @return The number of whole intervals since the last update, {@code 0} if the current one did not end yet.
+     */
+    public static int getElapsedIntervals(long lastUpdate, long intervalMs, long now) {
+        if (lastUpdate <= 0 || intervalMs <= 0 || now < lastUpdate) {
+            return 0;
+        }
+        return (int) Math.min((now - lastUpdate) / intervalMs, Integer.MAX_VALUE);
+    }
+
+    private void post() {
+        handler.removeCallbacks(tick);
+        if (!visible || deadlineUptime < 0) {
+            return;
+        }
+        long at = (deadlineUptime + COALESCE_MS - 1) / COALESCE_MS * COALESCE_MS;
+        handler.postAtTime(tick, at);
+    }
+
+    private void fire() {
+        deadlineUptime = -1;
+        onSlideDue.run();
+    }
+}
@@ -0,0 +1,236 @@
+package io.github.doubi88.slideshowwallpaper.utilities;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.opengl.GLUtils;
+import android.util.Log;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.egl.EGLContext;
+import javax.microedition.khronos.egl.EGLDisplay;
+import javax.microedition.khronos.egl.EGLSurface;
+
+/**
+ * Uploads image textures on a background thread, using an EGL context that shares its
+ * texture namespace with the render context of {@link GLWallpaperRenderer}.
+ * The render thread only has to wait for the upload fence and swap texture ids.
+ */
+public class TextureUploader {
+    private static final String TAG = "TextureUploader";
+
+    private static final int EGL_CONTEXT_CLIENT_VERSION = 0x3098;
+
+    public interface UploadListener {
+        /**
+         * Called on the upload thread, once the texture for {@code uri} is ready to be swapped in.
+         */
+        void onUploaded(Uri uri);
+    }
+
+    private final EGL10 egl;
+    private final EGLDisplay eglDisplay;
+    private final int clientVersion;
+    private final boolean useFence;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private EGLContext uploadContext;
+    private EGLSurface uploadSurface;
+    private volatile boolean failed = false;
+
+    private final Object lock = new Object();
+    private int backTextureId = -1;
+    private Uri backUri;
+    private long backFence;
+    private boolean backReady;
+
+    /**
+     * @param clientVersion The ES version of the shared context. Fence syncs are used with 3, {@code glFinish}
+     *                      with 2.
+     */
+    public TextureUploader(EGL10 egl, EGLDisplay eglDisplay, EGLConfig eglConfig, EGLContext sharedContext,
+            int clientVersion) {
+        this.egl = egl;
+        this.eglDisplay = eglDisplay;
+        this.clientVersion = clientVersion;
+        this.useFence = clientVersion >= 3;
+        // The context has to be current on the upload thread, but isAvailable() must know the result before the
+        // first upload is handed off. Otherwise a failed context would drop that upload silently.
+        Future<?> init = executor.submit(() -> initContext(eglConfig, sharedContext));
+        try {
+            init.get();
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Could not create shared upload context", e);
+            failed = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed = true;
+        }
+    }
+
+    private void initContext(EGLConfig eglConfig, EGLContext sharedContext) {
+        int[] attribList = { EGL_CONTEXT_CLIENT_VERSION, clientVersion, EGL10.EGL_NONE };
+        uploadContext = egl.eglCreateContext(eglDisplay, eglConfig, sharedContext, attribList);
+        int[] surfaceAttribs = { EGL10.EGL_WIDTH, 1, EGL10.EGL_HEIGHT, 1, EGL10.EGL_NONE };
+        uploadSurface = egl.eglCreatePbufferSurface(eglDisplay, eglConfig, surfaceAttribs);
+        if (uploadContext == null || uploadContext == EGL10.EGL_NO_CONTEXT
+                || uploadSurface == null || uploadSurface == EGL10.EGL_NO_SURFACE
+                || !egl.eglMakeCurrent(eglDisplay, uploadSurface, uploadSurface, uploadContext)) {
+            Log.e(TAG, "Could not create shared upload context, error " + egl.eglGetError());
+            failed = true;
+            destroyContext();
+        }
+    }
+
+    /**
+     * @return {@code true} if the background context could be created. If not, callers have to upload synchronously.
+     */
+    public boolean isAvailable() {
+        return !failed;
+    }
+
+    /**
+     * Uploads the bitmap into the back texture. Any earlier pending upload is replaced.
+     */
+    public void upload(Uri uri, Bitmap bitmap, UploadListener listener) {
+        synchronized (lock) {
+            backReady = false;
+            backUri = uri;
+        }
+        executor.execute(() -> {
+            if (uploadContext == null || bitmap == null || bitmap.isRecycled()) {
+                return;
+            }
+            long start = System.nanoTime();
+            int textureId;
+            synchronized (lock) {
+                if (!uri.equals(backUri)) {
+                    return; // Superseded before we started
+                }
+                if (backTextureId == -1) {
+                    backTextureId = createTexture();
+                }
+                textureId = backTextureId;
+                deleteFence();
+            }
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
+            GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
+            long fence = 0;
+            if (useFence) {
+                fence = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+                GLES20.glFlush();
+            } else {
+                GLES20.glFinish();
+            }
+            boolean notify = false;
+            synchronized (lock) {
+                if (uri.equals(backUri) && textureId == backTextureId) {
+                    backFence = fence;
+                    backReady = true;
+                    notify = true;
+                } else if (fence != 0) {
+                    GLES30.glDeleteSync(fence);
+                }
+            }
+            Log.d(TAG, "Uploaded " + bitmap.getWidth() + "x" + bitmap.getHeight() + " in "
+                    + ((System.nanoTime() - start) / 1000000) + "ms");
+            if (notify && listener != null) {
+                listener.onUploaded(uri);
+            }
+        });
+    }
+
+    /**
+     * @return {@code true} if the back texture holds a finished upload of the given uri.
+     */
+    public boolean isReady(Uri uri) {
+        synchronized (lock) {
+            return backReady && uri != null && uri.equals(backUri);
+        }
+    }
+
+    /**
+     * Must be called on the render thread. Waits (on the GPU) for the upload fence and returns the id of the
+     * uploaded texture. The given texture id becomes the new back texture.
+     *
+     * @return The uploaded texture id, or {@code -1} if no upload is ready.
+     */
+    public int swap(int frontTextureId) {
+        synchronized (lock) {
+            if (!backReady) {
+                return -1;
+            }
+            if (backFence != 0) {
+                GLES30.glWaitSync(backFence, 0, GLES30.GL_TIMEOUT_IGNORED);
+                GLES30.glDeleteSync(backFence);
+                backFence = 0;
+            }
+            int result = backTextureId;
+            backTextureId = frontTextureId;
+            backReady = false;
+            backUri = null;
+            return result;
+        }
+    }
+
+    private int createTexture() {
+        int[] textures = new int[1];
+        GLES20.glGenTextures(1, textures, 0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textures[0]);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        return textures[0];
+    }
+
+    private void deleteFence() {
+        if (backFence != 0) {
+            GLES30.glDeleteSync(backFence);
+            backFence = 0;
+        }
+    }
+
+    private void destroyContext() {
+        if (uploadSurface != null && uploadSurface != EGL10.EGL_NO_SURFACE) {
+            egl.eglMakeCurrent(eglDisplay, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_CONTEXT);
+            egl.eglDestroySurface(eglDisplay, uploadSurface);
+        }
+        uploadSurface = null;
+        if (uploadContext != null && uploadContext != EGL10.EGL_NO_CONTEXT) {
+            egl.eglDestroyContext(eglDisplay, uploadContext);
+        }
+        uploadContext = null;
+    }
+
+    /**
+     * Destroys the upload context. Blocks until the upload thread has finished, so the display can be
+     * terminated afterwards.
+     */
+    public void release() {
+        executor.execute(() -> {
+            synchronized (lock) {
+                deleteFence();
+                backReady = false;
+                backUri = null;
+            }
+            destroyContext();
+        });
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                Log.w(TAG, "Upload thread did not finish in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package io.github.doubi88.slideshowwallpaper.utilities;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Preview thumbnails of the image list, in two tiers. The memory tier holds the decoded bitmaps of this process,
+ * bounded by their byte size, so scrolling back binds them synchronously. The disk tier keeps them across
+ * starts, its key contains the last modified time and size, so an edited file gets a new thumbnail. Thumbnails of
+ * old keys are trimmed, the disk tier stays below {@link #MAX_DISK_BYTES}.
+ */
+public class ThumbnailCache {
+    private static final String TAG = "ThumbnailCache";
+    private static final String DIRECTORY = "thumbnails";
+    private static final int JPEG_QUALITY = 85;
+    private static final long MAX_DISK_BYTES = 64L * 1024 * 1024;
+
+    private static ThumbnailCache instance;
+
+    private final Context context;
+    private final LruCache<String, Bitmap> memory;
+    private final DiskCacheTrimmer trimmer;
+
+    private ThumbnailCache(Context context) {
+        this.context = context.getApplicationContext();
+        trimmer = new DiskCacheTrimmer(new File(this.context.getCacheDir(), DIRECTORY), MAX_DISK_BYTES);
+        // An eighth of the heap, like the platform's own examples
+        int maxBytes = (int) Math.min(Runtime.getRuntime().maxMemory() / 8, Integer.MAX_VALUE);
+        memory = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
+    }
+
+    public static synchronized ThumbnailCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new ThumbnailCache(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Only looks at the memory tier, so it can be called on the main thread.
+     *
+     * @param version The version from {@link MediaMetadata#getVersion()}. Without it, the thumbnail of an older
+     *                version could be returned, so {@code null} is always a miss.
+     * @return The thumbnail or {@code null}.
+     */
+    public Bitmap getFromMemory(Uri uri, String version, int width, int height) {
+        if (version == null) {
+            return null;
+        }
+        return memory.get(getMemoryKey(uri, version, width, height));
+    }
+
+    /**
+     * Looks at both tiers and loads the thumbnail with {@link ImageLoader#loadThumbnail} if it is not cached.
+     * Does I/O, must not be called on the main thread.
+     *
+     * @param version The version of the file from {@link FileUtils#getVersion(Uri, Context)} or
+     *                {@link MediaMetadata#getVersion()}, {@code null} to query it.
+     * @param mimeType The type from {@link MediaMetadata#getMimeType()}, {@code null} to query it.
+     * @return The thumbnail, {@code null} if the file could not be decoded.
+     */
+    public Bitmap get(Uri uri, String version, String mimeType, int width, int height) throws IOException {
+        if (version == null) {
+            version = FileUtils.getVersion(uri, context);
+        }
+        // Versioned like the disk tier, so an edited file does not keep its old thumbnail
+        String memoryKey = getMemoryKey(uri, version, width, height);
+        Bitmap result = memory.get(memoryKey);
+        if (result != null) {
+            return result;
+        }
+
+        File file = getFile(uri, version, width, height);
+        if (file.exists()) {
+            result = BitmapFactory.decodeFile(file.getAbsolutePath());
+            if (result == null) {
+                Log.w(TAG, "Deleting unreadable thumbnail " + file);
+                file.delete();
+            } else {
+                DiskCacheTrimmer.touch(file);
+            }
+        }
+        if (result == null) {
+            long start = System.currentTimeMillis();
+            result = scaleDown(ImageLoader.loadThumbnail(uri, context, mimeType, width, height), width, height);
+            if (result == null) {
+                return null;
+            }
+            if (save(result, file)) {
+                trimmer.onWritten(file);
+            }
+            Log.d(TAG, "Created thumbnail of " + uri + " in " + (System.currentTimeMillis() - start) + "ms");
+        }
+        memory.put(memoryKey, result);
+        return result;
+    }
+
+    /**
+     * Drops all memory entries of the uri. Disk entries of other versions are never read again and get trimmed.
+     */
+    public void remove(Uri uri) {
+        String prefix = uri + "|";
+        for (String key : memory.snapshot().keySet()) {
+            if (key.startsWith(prefix)) {
+                memory.remove(key);
+            }
+        }
+    }
+
+    /**
+     * The decoder only samples by powers of two, the cache keeps no more pixels than the preview shows.
+     */
+    private static Bitmap scaleDown(Bitmap bitmap, int width, int height) {
+        if (bitmap == null) {
+            return null;
+        }
+        float scale = ImageLoader.calculateScaleFactorToFit(bitmap, width, height, false);
+        if (scale >= 1 || scale <= 0) {
+            return bitmap;
+        }
+        int scaledWidth = Math.max(1, Math.round(bitmap.getWidth() * scale));
+        int scaledHeight = Math.max(1, Math.round(bitmap.getHeight() * scale));
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap, scaledWidth, scaledHeight, true);
+        if (scaled != bitmap) {
+            bitmap.recycle();
+        }
+        return scaled;
+    }
+
+    private static boolean save(Bitmap thumbnail, File file) {
+        File directory = file.getParentFile();
+        if (directory != null && !directory.exists() && !directory.mkdirs()) {
+            Log.w(TAG, "Could not create " + directory);
+            return false;
+        }
+        // Written to a temporary file first, so a concurrent reader never sees half a thumbnail
+        File temp = new File(file.getPath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(temp)) {
+            thumbnail.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write thumbnail " + file, e);
+            temp.delete();
+            return false;
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            return false;
+        }
+        return true;
+    }
+
+    private static String getMemoryKey(Uri uri, String version, int width, int height) {
+        return uri + "|" + version + "|" + width + "x" + height;
+    }
+
+    private File getFile(Uri uri, String version, int width, int height) {
+        String key = uri + "|" + version + "|" + width + "x" + height;
+        return new File(new File(context.getCacheDir(), DIRECTORY), FileUtils.hash(key) + ".jpg");
+    }
+}
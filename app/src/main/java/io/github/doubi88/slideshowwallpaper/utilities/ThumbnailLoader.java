@@ -0,0 +1,152 @@
+package io.github.doubi88.slideshowwallpaper.utilities;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads thumbnails through the {@link ThumbnailCache} on a small thread pool. Requests of visible items run
+ * before prefetched ones, and the newest request of a priority runs first, so the items the user scrolled to
+ * appear before the ones they scrolled past. A slow video does not hold up the images next to it.
+ * <p>
+ * Requests are created and changed on the main thread, the callback is called on the main thread.
+ */
+public class ThumbnailLoader {
+    private static final String TAG = "ThumbnailLoader";
+
+    public static final int PRIORITY_VISIBLE = 0;
+    public static final int PRIORITY_PREFETCH = 1;
+
+    public interface Callback {
+        /**
+         * @param thumbnail {@code null} if the file could not be read.
+         */
+        void onThumbnailLoaded(Bitmap thumbnail);
+    }
+
+    private final Context context;
+    private final ThreadPoolExecutor executor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicLong sequence = new AtomicLong();
+
+    public ThumbnailLoader(Context context) {
+        this.context = context.getApplicationContext();
+        // Decoding is memory bound, more threads than cores do not help
+        int threads = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new PriorityBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "ThumbnailLoader-" + threadCount.incrementAndGet());
+                    thread.setPriority(Thread.NORM_PRIORITY - 1);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @param version  The version from the {@link MediaMetadata}, {@code null} if it is not loaded yet.
+     * @param mimeType The type from the {@link MediaMetadata}, {@code null} if it is not loaded yet.
+     */
+    public Request load(Uri uri, String version, String mimeType, int width, int height, int priority,
+            Callback callback) {
+        Request request = new Request(uri, version, mimeType, width, height, priority, callback);
+        executor.execute(request);
+        return request;
+    }
+
+    /**
+     * Moves a queued request to another priority. Has no effect on running or finished requests.
+     */
+    public void setPriority(Request request, int priority) {
+        if (request.priority != priority && executor.remove(request)) {
+            request.priority = priority;
+            request.order = sequence.incrementAndGet();
+            executor.execute(request);
+        }
+    }
+
+    /**
+     * Removes a queued request. A running one finishes, but its callback is not called.
+     */
+    public void cancel(Request request) {
+        request.cancelled = true;
+        executor.remove(request);
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public final class Request implements Runnable, Comparable<Request> {
+        private final Uri uri;
+        private final String version;
+        private final String mimeType;
+        private final int width;
+        private final int height;
+        private final Callback callback;
+        private volatile int priority;
+        private volatile long order;
+        private volatile boolean cancelled = false;
+
+        private Request(Uri uri, String version, String mimeType, int width, int height, int priority,
+                Callback callback) {
+            this.uri = uri;
+            this.version = version;
+            this.mimeType = mimeType;
+            this.width = width;
+            this.height = height;
+            this.priority = priority;
+            this.callback = callback;
+            this.order = sequence.incrementAndGet();
+        }
+
+        public Uri getUri() {
+            return uri;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            Bitmap thumbnail = loadThumbnail();
+            mainHandler.post(() -> {
+                if (!cancelled) {
+                    callback.onThumbnailLoaded(thumbnail);
+                }
+            });
+        }
+
+        private Bitmap loadThumbnail() {
+            try {
+                return ThumbnailCache.getInstance(context).get(uri, version, mimeType, width, height);
+            } catch (IOException | SecurityException e) {
+                Log.e(TAG, "Error opening file " + uri, e);
+                return null;
+            }
+        }
+
+        @Override
+        public int compareTo(Request other) {
+            if (priority != other.priority) {
+                return Integer.compare(priority, other.priority);
+            }
+            // Newest first
+            return Long.compare(other.order, order);
+        }
+    }
+}
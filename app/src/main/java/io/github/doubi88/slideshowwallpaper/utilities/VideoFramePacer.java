@@ -0,0 +1,153 @@
+package io.github.doubi88.slideshowwallpaper.utilities;
+
+import android.graphics.SurfaceTexture;
+import android.util.Log;
+import android.view.Choreographer;
+
+/**
+ * Paces decoded video frames to the display's vsync and an optional frame rate cap.
+ * <p>
+ * Frames are always latched from the {@link SurfaceTexture} on the next vsync, so the decoder never stalls on
+ * a full buffer queue. If several frames arrive before a frame may be drawn, only the newest one is shown and
+ * the others are counted as dropped.
+ * <p>
+ * Must be created and used on a thread with a {@link android.os.Looper} (the main thread).
+ */
+public class VideoFramePacer implements SurfaceTexture.OnFrameAvailableListener, Choreographer.FrameCallback {
+    private static final String TAG = "VideoFramePacer";
+
+    // A frame may be drawn a little early, vsync timestamps jitter
+    private static final long VSYNC_SLACK_NANOS = 2000000;
+    // Frames of a previous video are at most this old, when the next one starts
+    private static final long STALE_WINDOW_NANOS = 1000000000L;
+
+    public interface FrameRenderer {
+        void renderFrame();
+    }
+
+    private final Choreographer choreographer;
+    private final SurfaceTexture surfaceTexture;
+    private final FrameRenderer renderer;
+
+    private long minFrameIntervalNanos;
+    private long nextRenderNanos = 0;
+    private int availableFrames = 0;
+    private boolean frameLatched = false;
+    private boolean callbackPosted = false;
+    private boolean released = false;
+    private long minTimestampNanos = 0;
+
+    private long renderedFrames = 0;
+    private long droppedFrames = 0;
+
+    /**
+     * @param maxFps Maximum frames per second to draw. {@code 0} or less draws every frame on the next vsync.
+     */
+    public VideoFramePacer(SurfaceTexture surfaceTexture, FrameRenderer renderer, float maxFps) {
+        this.choreographer = Choreographer.getInstance();
+        this.surfaceTexture = surfaceTexture;
+        this.renderer = renderer;
+        setMaxFps(maxFps);
+    }
+
+    public void setMaxFps(float maxFps) {
+        minFrameIntervalNanos = maxFps > 0 ? (long) (1000000000L / maxFps) : 0;
+    }
+
+    @Override
+    public void onFrameAvailable(SurfaceTexture surfaceTexture) {
+        if (released) {
+            return;
+        }
+        availableFrames++;
+        postCallback();
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        callbackPosted = false;
+        if (released) {
+            return;
+        }
+        try {
+            if (availableFrames > 0) {
+                // Latch everything that arrived, only the newest frame stays in the texture
+                for (int i = 0; i < availableFrames; i++) {
+                    surfaceTexture.updateTexImage();
+                }
+                droppedFrames += availableFrames - 1;
+                if (frameLatched) {
+                    droppedFrames++; // The previously latched frame was never drawn
+                }
+                availableFrames = 0;
+                frameLatched = true;
+                if (isStale(surfaceTexture.getTimestamp())) {
+                    droppedFrames++;
+                    frameLatched = false;
+                }
+            }
+
+            if (frameLatched) {
+                if (frameTimeNanos >= nextRenderNanos - VSYNC_SLACK_NANOS) {
+                    renderer.renderFrame();
+                    renderedFrames++;
+                    frameLatched = false;
+                    nextRenderNanos = Math.max(nextRenderNanos + minFrameIntervalNanos,
+                            frameTimeNanos + minFrameIntervalNanos / 2);
+                } else {
+                    // Too early for the cap, try again on the next vsync
+                    postCallback();
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error rendering video frame", e);
+        }
+    }
+
+    private void postCallback() {
+        if (!callbackPosted) {
+            callbackPosted = true;
+            choreographer.postFrameCallback(this);
+        }
+    }
+
+    /**
+     * Frames queued by a previous video carry a release timestamp from before the switch. Their timestamps
+     * are only comparable, if the codec released them with a render time on the {@link System#nanoTime()}
+     * clock, which is why only frames shortly before the switch count as stale.
+     */
+    private boolean isStale(long timestampNanos) {
+        return timestampNanos < minTimestampNanos && minTimestampNanos - timestampNanos < STALE_WINDOW_NANOS;
+    }
+
+    /**
+     * Resets the pacing for the next video on the same {@link SurfaceTexture}, keeping the frame counters.
+     * Frames still queued from the previous video are not drawn.
+     */
+    public void startNewVideo() {
+        choreographer.removeFrameCallback(this);
+        callbackPosted = false;
+        frameLatched = false;
+        nextRenderNanos = 0;
+        minTimestampNanos = System.nanoTime();
+        if (availableFrames > 0) {
+            // Latch them on the next vsync, the timestamp check drops them
+            postCallback();
+        }
+    }
+
+    public void release() {
+        released = true;
+        choreographer.removeFrameCallback(this);
+        callbackPosted = false;
+        Log.d(TAG, "Rendered frames: " + renderedFrames + ", dropped frames: " + droppedFrames);
+    }
+
+    public long getRenderedFrames() {
+        return renderedFrames;
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+}
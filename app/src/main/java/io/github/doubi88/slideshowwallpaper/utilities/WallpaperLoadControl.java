@@ -0,0 +1,120 @@
+package io.github.doubi88.slideshowwallpaper.utilities;
+
+import android.util.Log;
+
+import androidx.media3.exoplayer.DefaultLoadControl;
+import androidx.media3.exoplayer.upstream.DefaultAllocator;
+
+/**
+ * The buffer settings of the wallpaper player. The buffer durations and the byte limit come from the
+ * {@link BufferProfile} of the current video. While the wallpaper is in warm standby, no more media is loaded
+ * and unused buffer memory is given back, but the player and its codec stay prepared.
+ * <p>
+ * Also records time to first frame and rebuffers per profile, to tune the profiles.
+ */
+public class WallpaperLoadControl extends DefaultLoadControl {
+    private static final String TAG = "WallpaperLoadControl";
+
+    private final int memoryClassMb;
+
+    private volatile boolean standby = false;
+    private volatile BufferProfile profile = BufferProfile.STANDARD;
+    private volatile int maxBufferBytes;
+    private boolean loading = false; // Only used on the playback thread
+
+    private final int[] firstFrames = new int[BufferProfile.values().length];
+    private final long[] totalFirstFrameMs = new long[BufferProfile.values().length];
+    private final int[] rebuffers = new int[BufferProfile.values().length];
+
+    /**
+     * @param memoryClassMb The heap limit of the app, see {@link BufferProfile#getMemoryClass}.
+     */
+    public WallpaperLoadControl(int memoryClassMb) {
+        super(new DefaultAllocator(true, DEFAULT_BUFFER_SEGMENT_SIZE), BufferProfile.STANDARD.minBufferMs,
+                BufferProfile.STANDARD.maxBufferMs, BufferProfile.STANDARD.bufferForPlaybackMs,
+                BufferProfile.STANDARD.bufferForPlaybackAfterRebufferMs, DEFAULT_TARGET_BUFFER_BYTES,
+                true, DEFAULT_BACK_BUFFER_DURATION_MS, DEFAULT_RETAIN_BACK_BUFFER_FROM_KEYFRAME);
+        this.memoryClassMb = memoryClassMb;
+        this.maxBufferBytes = profile.getMaxBufferBytes(memoryClassMb);
+    }
+
+    /**
+     * Called on the main thread. In standby, loading stops at the next check of the playback thread.
+     */
+    public void setStandby(boolean standby) {
+        this.standby = standby;
+        if (standby) {
+            getAllocator().trim();
+        }
+    }
+
+    /**
+     * Called on the main thread, before the video with this profile is prepared or becomes the current item.
+     * Queued videos are buffered with the profile of the current one.
+     */
+    public void setProfile(BufferProfile profile) {
+        this.profile = profile;
+        this.maxBufferBytes = profile.getMaxBufferBytes(memoryClassMb);
+    }
+
+    public BufferProfile getProfile() {
+        return profile;
+    }
+
+    @Override
+    public boolean shouldContinueLoading(Parameters parameters) {
+        if (standby) {
+            return false;
+        }
+        BufferProfile current = profile;
+        long bufferedMs = parameters.bufferedDurationUs / 1000;
+        if (getAllocator().getTotalBytesAllocated() >= maxBufferBytes) {
+            loading = false;
+        } else if (bufferedMs < current.minBufferMs) {
+            loading = true;
+        } else if (bufferedMs >= current.maxBufferMs) {
+            loading = false;
+        }
+        return loading;
+    }
+
+    @Override
+    public boolean shouldStartPlayback(Parameters parameters) {
+        BufferProfile current = profile;
+        long bufferedMs = parameters.bufferedDurationUs / 1000;
+        long neededMs = parameters.rebuffering ? current.bufferForPlaybackAfterRebufferMs
+                : current.bufferForPlaybackMs;
+        // If the byte limit is reached, waiting for more data would never end
+        return bufferedMs >= neededMs || getAllocator().getTotalBytesAllocated() >= maxBufferBytes;
+    }
+
+    /**
+     * Called on the main thread, when the first frame of a video with the current profile was drawn.
+     */
+    public void recordFirstFrame(long latencyMs) {
+        int index = profile.ordinal();
+        firstFrames[index]++;
+        totalFirstFrameMs[index] += latencyMs;
+        Log.d(TAG, profile + ": time to first frame " + latencyMs + "ms, average "
+                + (totalFirstFrameMs[index] / firstFrames[index]) + "ms over " + firstFrames[index] + " videos, "
+                + rebuffers[index] + " rebuffers");
+    }
+
+    /**
+     * Called on the main thread, when playback stalled because the buffer ran empty.
+     */
+    public void recordRebuffer() {
+        int index = profile.ordinal();
+        rebuffers[index]++;
+        Log.d(TAG, profile + ": rebuffer, " + rebuffers[index] + " in total");
+    }
+
+    public int getRebufferCount(BufferProfile profile) {
+        return rebuffers[profile.ordinal()];
+    }
+
+    public long getAverageTimeToFirstFrameMs(BufferProfile profile) {
+        int index = profile.ordinal();
+        return firstFrames[index] > 0 ? totalFirstFrameMs[index] / firstFrames[index] : 0;
+    }
+}
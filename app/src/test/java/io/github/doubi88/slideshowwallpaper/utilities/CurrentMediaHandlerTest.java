@@ -0,0 +1,291 @@
+package io.github.doubi88.slideshowwallpaper.utilities;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Looper;
+
+import androidx.media3.common.MediaItem;
+import androidx.media3.common.Player;
+import androidx.media3.exoplayer.ExoPlayer;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.LooperMode;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.github.doubi88.slideshowwallpaper.preferences.SharedPreferencesManager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Drives the public controls of {@link CurrentMediaHandler} from several threads, like the wallpaper engine, swipes
+ * and the player callbacks do. The main looper is paused, so the test decides when posted work runs. The player is
+ * a mock, there is no surface and no GL context.
+ */
+@RunWith(RobolectricTestRunner.class)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class CurrentMediaHandlerTest {
+    private static final int THREADS = 4;
+    private static final int ITERATIONS = 500;
+    private static final int MEDIA_COUNT = 7;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Context context;
+    private SharedPreferencesManager manager;
+    private ExoPlayer player;
+    private final AtomicInteger createdPlayers = new AtomicInteger();
+    private CurrentMediaHandler handler;
+
+    @Before
+    public void setUp() throws IOException {
+        context = RuntimeEnvironment.getApplication();
+        manager = new SharedPreferencesManager(context.getSharedPreferences("test", Context.MODE_PRIVATE));
+        Bitmap bitmap = Bitmap.createBitmap(8, 8, Bitmap.Config.ARGB_8888);
+        for (int i = 0; i < MEDIA_COUNT; i++) {
+            File file = folder.newFile("image" + i + ".png");
+            try (OutputStream out = new FileOutputStream(file)) {
+                bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+            }
+            manager.addUri(Uri.fromFile(file));
+        }
+        player = mock(ExoPlayer.class);
+        handler = new CurrentMediaHandler(manager, 100, 100, context, null, (playerContext, loadControl) -> {
+            createdPlayers.incrementAndGet();
+            return player;
+        });
+    }
+
+    @Test
+    public void concurrentNavigationIsCoalesced() throws Exception {
+        // Even threads go forward, odd ones one step less back: two steps in total
+        runConcurrently(THREADS, (thread, random) -> {
+            int steps = thread % 2 == 0 ? ITERATIONS : ITERATIONS - 1;
+            for (int i = 0; i < steps; i++) {
+                if (thread % 2 == 0) {
+                    handler.forceNextMedia(context);
+                } else {
+                    handler.forcePreviousMedia(context);
+                }
+            }
+        });
+        idleMainLooper();
+
+        assertEquals(THREADS / 2 % MEDIA_COUNT, manager.getCurrentIndex());
+        // A single load of the final target
+        assertEquals(1, createdPlayers.get());
+        verify(player, times(1)).clearMediaItems();
+    }
+
+    @Test
+    public void stopWinsOverPendingNavigation() throws Exception {
+        runConcurrently(THREADS, (thread, random) -> {
+            for (int i = 0; i < ITERATIONS; i++) {
+                if (thread == 0 && i == ITERATIONS / 2) {
+                    handler.stop();
+                } else if (random.nextBoolean()) {
+                    handler.forceNextMedia(context);
+                } else {
+                    handler.forcePreviousMedia(context);
+                }
+            }
+        });
+        idleMainLooper();
+
+        assertFalse(handler.isStarted());
+        assertEquals(0, createdPlayers.get());
+        assertNull(handler.getCurrentMedia());
+    }
+
+    @Test
+    public void concurrentControls() throws Exception {
+        handler.forceNextMedia(context);
+        idleMainLooper();
+        assertEquals(1, createdPlayers.get());
+
+        CountDownLatch done = new CountDownLatch(THREADS);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = startThreads(THREADS, (thread, random) -> {
+            try {
+                for (int i = 0; i < ITERATIONS; i++) {
+                    switch (random.nextInt(4)) {
+                        case 0:
+                            handler.forceNextMedia(context);
+                            break;
+                        case 1:
+                            handler.forcePreviousMedia(context);
+                            break;
+                        case 2:
+                            handler.pause();
+                            break;
+                        default:
+                            handler.resume(context);
+                            break;
+                    }
+                }
+            } finally {
+                done.countDown();
+            }
+        }, failure);
+        // The posted work runs while the others keep calling
+        while (done.getCount() > 0) {
+            idleMainLooper();
+        }
+        joinAll(threads, failure);
+        idleMainLooper();
+
+        // Whatever the order was, the last call decides
+        handler.pause();
+        idleMainLooper();
+        assertTrue(handler.isPaused());
+        handler.resume(context);
+        idleMainLooper();
+        assertFalse(handler.isPaused());
+
+        Thread stopper = new Thread(handler::stop);
+        stopper.start();
+        stopper.join();
+        idleMainLooper();
+        assertFalse(handler.isStarted());
+        assertNull(handler.getCurrentMedia());
+        verify(player, times(1)).release();
+
+        // Nothing starts again after the stop
+        handler.forceNextMedia(context);
+        handler.resume(context);
+        idleMainLooper();
+        assertEquals(1, createdPlayers.get());
+        assertNull(handler.getCurrentMedia());
+    }
+
+    @Test
+    public void videoEndStartsNewInterval() {
+        Player.Listener listener = startAndCaptureListener();
+        // The slide before the video started 40s ago, with the default interval of 15s
+        manager.setLastUpdate(System.currentTimeMillis() - 40_000);
+        long before = System.currentTimeMillis();
+
+        listener.onMediaItemTransition(queuedItem(), Player.MEDIA_ITEM_TRANSITION_REASON_AUTO);
+
+        assertEquals(2, manager.getCurrentIndex());
+        assertTrue(manager.getLastUpdate() >= before);
+    }
+
+    @Test
+    public void timerSeekStaysOnGrid() {
+        Player.Listener listener = startAndCaptureListener();
+        long lastUpdate = System.currentTimeMillis() - 40_000;
+        manager.setLastUpdate(lastUpdate);
+
+        listener.onMediaItemTransition(queuedItem(), Player.MEDIA_ITEM_TRANSITION_REASON_SEEK);
+
+        assertEquals(2, manager.getCurrentIndex());
+        assertEquals(lastUpdate + 30_000, manager.getLastUpdate());
+    }
+
+    @Test
+    public void doubleResumeCatchesUpOnce() {
+        handler.forceNextMedia(context);
+        idleMainLooper();
+        assertEquals(1, manager.getCurrentIndex());
+        handler.pause();
+        // Three intervals of 15s were missed while invisible
+        manager.setLastUpdate(System.currentTimeMillis() - 46_000);
+
+        // Like onSurfaceCreated and onVisibilityChanged after a warm standby
+        handler.resume(context);
+        handler.resume(context);
+        idleMainLooper();
+
+        assertEquals(4, manager.getCurrentIndex());
+        assertFalse(handler.isPaused());
+    }
+
+    /**
+     * Loads the first slide, which creates the player.
+     */
+    private Player.Listener startAndCaptureListener() {
+        handler.forceNextMedia(context);
+        idleMainLooper();
+        assertEquals(1, manager.getCurrentIndex());
+        ArgumentCaptor<Player.Listener> listener = ArgumentCaptor.forClass(Player.Listener.class);
+        verify(player).addListener(listener.capture());
+        return listener.getValue();
+    }
+
+    /**
+     * The item the player would have queued after the current one.
+     */
+    private MediaItem queuedItem() {
+        Uri next = manager.getImageUris(SharedPreferencesManager.Ordering.SELECTION).get(2);
+        return new MediaItem.Builder().setUri(next).setMediaId(next.toString()).build();
+    }
+
+    private interface Worker {
+        void run(int thread, Random random) throws Exception;
+    }
+
+    private static void runConcurrently(int count, Worker worker) throws Exception {
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        joinAll(startThreads(count, worker, failure), failure);
+    }
+
+    private static List<Thread> startThreads(int count, Worker worker, AtomicReference<Throwable> failure) {
+        CountDownLatch startSignal = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>(count);
+        for (int t = 0; t < count; t++) {
+            int thread = t;
+            threads.add(new Thread(() -> {
+                try {
+                    startSignal.await();
+                    worker.run(thread, new Random(thread));
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        startSignal.countDown();
+        return threads;
+    }
+
+    private static void joinAll(List<Thread> threads, AtomicReference<Throwable> failure) throws Exception {
+        for (Thread thread : threads) {
+            thread.join(60_000);
+        }
+        if (failure.get() != null) {
+            throw new AssertionError("Worker failed", failure.get());
+        }
+    }
+
+    private static void idleMainLooper() {
+        shadowOf(Looper.getMainLooper()).idle();
+    }
+}
@@ -0,0 +1,171 @@
+package io.github.doubi88.slideshowwallpaper.utilities;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test of the playback states, including concurrent transitions like the ones of the wallpaper
+ * engine (pause, resume, stop), swipes (loading) and the player callbacks (image, video).
+ */
+public class PlaybackStateMachineTest {
+    private static final int THREADS = 4;
+    private static final int ITERATIONS = 20_000;
+
+    @Test
+    public void pauseKeepsContent() {
+        PlaybackStateMachine state = new PlaybackStateMachine();
+        assertTrue(state.playVideo());
+        assertTrue(state.pause());
+        assertTrue(state.isPaused());
+        assertTrue(state.isPlayingVideo());
+
+        assertTrue(state.showImage());
+        assertTrue(state.isPaused());
+        assertEquals(PlaybackStateMachine.State.SHOWING_IMAGE, state.getContent());
+
+        assertTrue(state.resume());
+        assertEquals(PlaybackStateMachine.State.SHOWING_IMAGE, state.getState());
+        assertFalse(state.resume());
+    }
+
+    @Test
+    public void stopIsStickyUntilStart() {
+        PlaybackStateMachine state = new PlaybackStateMachine();
+        assertTrue(state.pause());
+        assertTrue(state.stop());
+        assertFalse(state.stop());
+        assertFalse(state.startLoading());
+        assertFalse(state.playVideo());
+        assertFalse(state.pause());
+        assertFalse(state.resume());
+        assertTrue(state.isStopped());
+
+        assertTrue(state.start());
+        assertEquals(PlaybackStateMachine.State.IDLE, state.getState());
+        assertTrue(state.startLoading());
+    }
+
+    @Test
+    public void startResumesWhenPaused() {
+        PlaybackStateMachine state = new PlaybackStateMachine();
+        state.showImage();
+        state.pause();
+        assertFalse(state.start());
+        assertEquals(PlaybackStateMachine.State.SHOWING_IMAGE, state.getState());
+    }
+
+    @Test
+    public void concurrentTransitions() throws Exception {
+        PlaybackStateMachine state = new PlaybackStateMachine();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS + 1);
+        CountDownLatch startSignal = new CountDownLatch(1);
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (int t = 0; t < THREADS; t++) {
+            long seed = t;
+            futures.add(executor.submit(() -> {
+                Random random = new Random(seed);
+                startSignal.await();
+                for (int i = 0; i < ITERATIONS; i++) {
+                    switch (random.nextInt(7)) {
+                        case 0:
+                            state.startLoading();
+                            break;
+                        case 1:
+                            state.showImage();
+                            break;
+                        case 2:
+                            state.playVideo();
+                            break;
+                        case 3:
+                            state.pause();
+                            break;
+                        case 4:
+                            state.resume();
+                            break;
+                        case 5:
+                            state.stop();
+                            break;
+                        default:
+                            state.start();
+                            break;
+                    }
+                }
+                return null;
+            }));
+        }
+        // Reads while the others write: what is on screen is never "paused"
+        Future<?> reader = executor.submit(() -> {
+            startSignal.await();
+            while (running.get()) {
+                assertNotEquals(PlaybackStateMachine.State.PAUSED, state.getContent());
+            }
+            return null;
+        });
+
+        startSignal.countDown();
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        running.set(false);
+        reader.get(60, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        // However the threads interleaved, the machine still accepts every transition
+        state.stop();
+        assertTrue(state.isStopped());
+        assertFalse(state.showImage());
+        assertTrue(state.start());
+        assertTrue(state.playVideo());
+        assertTrue(state.pause());
+        assertTrue(state.resume());
+        assertTrue(state.isPlayingVideo());
+    }
+
+    @Test
+    public void concurrentStopWins() throws Exception {
+        // A stop racing with content changes must never be overwritten by them
+        for (int round = 0; round < 1000; round++) {
+            PlaybackStateMachine state = new PlaybackStateMachine();
+            CountDownLatch startSignal = new CountDownLatch(1);
+            Thread[] threads = new Thread[4];
+            for (int t = 0; t < threads.length; t++) {
+                threads[t] = new Thread(() -> {
+                    try {
+                        startSignal.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < 100; i++) {
+                        state.startLoading();
+                        state.pause();
+                        state.playVideo();
+                        state.resume();
+                    }
+                });
+                threads[t].start();
+            }
+            startSignal.countDown();
+            state.stop();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertTrue(state.isStopped());
+        }
+    }
+}